@@ -0,0 +1,29 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.data.StockFA;
+
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.averageTrueRange;
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.ema;
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.highest;
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.lowest;
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.sma;
+import static com.financialanalysis.analysis.AnalysisBaseFunctions.stdDev;
+import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getHighPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getLowPrices;
+
+public class AnalysisBaseFunctionsBenchmark {
+    public static void run(BenchmarkHarness harness, int bars) {
+        StockFA stock = SyntheticSeries.stock(bars);
+        double[] close = getClosingPrices(stock.getPriceSeries());
+        double[] high = getHighPrices(stock.getPriceSeries());
+        double[] low = getLowPrices(stock.getPriceSeries());
+
+        harness.run("AnalysisBaseFunctions.sma", bars, () -> sma(close, 100));
+        harness.run("AnalysisBaseFunctions.ema", bars, () -> ema(close, 26));
+        harness.run("AnalysisBaseFunctions.stdDev", bars, () -> stdDev(close, 21));
+        harness.run("AnalysisBaseFunctions.highest", bars, () -> highest(high, 30));
+        harness.run("AnalysisBaseFunctions.lowest", bars, () -> lowest(low, 30));
+        harness.run("AnalysisBaseFunctions.averageTrueRange", bars, () -> averageTrueRange(high, low, 14));
+    }
+}
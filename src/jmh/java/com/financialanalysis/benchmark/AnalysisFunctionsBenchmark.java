@@ -0,0 +1,38 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.analysis.AnalysisFunctions;
+import com.financialanalysis.data.StockFA;
+
+import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getHighPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getLowPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getVolume;
+
+public class AnalysisFunctionsBenchmark {
+    public static void run(BenchmarkHarness harness, int bars) {
+        StockFA stock = SyntheticSeries.stock(bars);
+        double[] close = getClosingPrices(stock.getPriceSeries());
+        double[] high = getHighPrices(stock.getPriceSeries());
+        double[] low = getLowPrices(stock.getPriceSeries());
+        double[] volume = getVolume(stock.getPriceSeries());
+
+        harness.run("AnalysisFunctions.macd", bars, () -> AnalysisFunctions.macd(close, 12, 26, 9));
+        harness.run("AnalysisFunctions.bollingerBands", bars, () -> AnalysisFunctions.bollingerBands(close, 21));
+
+        // Into the same buffers every call, as a caller reusing them would
+        double[] a = new double[bars];
+        double[] b = new double[bars];
+        double[] c = new double[bars];
+        harness.run("AnalysisFunctions.macdInto", bars, () -> {
+            AnalysisFunctions.macd(close, 12, 26, 9, a, b, c);
+            return c;
+        });
+        harness.run("AnalysisFunctions.bollingerBandsInto", bars, () -> {
+            AnalysisFunctions.bollingerBands(close, 21, a, b, c);
+            return c;
+        });
+        harness.run("AnalysisFunctions.adx", bars, () -> AnalysisFunctions.adx(low, high, close, 14));
+        harness.run("AnalysisFunctions.zigzag", bars, () -> AnalysisFunctions.zigzag(close, 0.2));
+        harness.run("AnalysisFunctions.pvo", bars, () -> AnalysisFunctions.pvo(volume, 12, 26, 9));
+    }
+}
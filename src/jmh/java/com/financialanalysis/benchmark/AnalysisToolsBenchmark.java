@@ -0,0 +1,58 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.analysis.AnalysisTools;
+import com.financialanalysis.analysis.ExtremaIndex;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Trend;
+import com.financialanalysis.graphing.Point;
+import org.joda.time.DateTime;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getDates;
+
+public class AnalysisToolsBenchmark {
+    // Same look back as the flag top search in FlagStrategy
+    private static final int TREND_PERIOD = 10;
+
+    public static void run(BenchmarkHarness harness, int bars) {
+        StockFA stock = SyntheticSeries.stock(bars);
+        double[] close = getClosingPrices(stock.getPriceSeries());
+        List<DateTime> dates = getDates(stock.getPriceSeries());
+        Map<Integer, Point> maxima = AnalysisTools.max(close, 3, 3);
+
+        harness.run("AnalysisTools.max", bars, () -> AnalysisTools.max(close, 3, 3));
+        harness.run("AnalysisTools.min", bars, () -> AnalysisTools.min(close, 3, 3));
+
+        // One trend per day, the way a backtest walks the series
+        harness.run("AnalysisTools.findTrend", bars, () -> {
+            Trend last = null;
+            for(int i = TREND_PERIOD; i < close.length; i++) {
+                last = AnalysisTools.findTrend(maxima, i, TREND_PERIOD, dates, stock.getSymbol());
+            }
+            return last;
+        });
+
+        // What FlagStrategy did per day before the extrema index, max over the prefix then a trend
+        harness.run("AnalysisTools.findTrend.prefixMax", bars, () -> {
+            Trend last = null;
+            for(int i = TREND_PERIOD; i < close.length; i++) {
+                Map<Integer, Point> prefixMaxima = AnalysisTools.max(Arrays.copyOfRange(close, 0, i + 1), 3, 3);
+                last = AnalysisTools.findTrend(prefixMaxima, i, TREND_PERIOD, dates, stock.getSymbol());
+            }
+            return last;
+        });
+
+        harness.run("AnalysisTools.findTrend.extremaIndex", bars, () -> {
+            ExtremaIndex index = ExtremaIndex.max(close, 3, 3);
+            Trend last = null;
+            for(int i = TREND_PERIOD; i < close.length; i++) {
+                last = AnalysisTools.findTrend(index, i, TREND_PERIOD, dates, stock.getSymbol());
+            }
+            return last;
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package com.financialanalysis.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal warmup then measure loop. Each iteration calls an operation for a fixed amount of time and
+ * records the average time per call, results are handed to a volatile sink so the JIT can't drop them.
+ */
+public class BenchmarkHarness {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    private final Pattern filter;
+    private final List<String> results = new ArrayList<>();
+    private volatile Object sink;
+
+    public BenchmarkHarness(Pattern filter) {
+        this.filter = filter;
+    }
+
+    public void run(String name, int bars, Supplier<Object> operation) {
+        String id = name + "[" + bars + "]";
+        if(!filter.matcher(id).find()) {
+            return;
+        }
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(operation);
+        }
+
+        double[] nanosPerOp = new double[MEASUREMENT_ITERATIONS];
+        for(int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            nanosPerOp[i] = iteration(operation);
+        }
+
+        double mean = 0;
+        for(double n : nanosPerOp) mean += n;
+        mean /= nanosPerOp.length;
+
+        double variance = 0;
+        for(double n : nanosPerOp) variance += (n - mean) * (n - mean);
+        double error = Math.sqrt(variance / (nanosPerOp.length - 1));
+
+        String line = String.format("%-45s %14.1f %12.1f", id, mean / 1000.0, error / 1000.0);
+        results.add(line);
+        System.out.println(line);
+    }
+
+    private double iteration(Supplier<Object> operation) {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink = operation.get();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while(elapsed < ITERATION_NANOS);
+
+        return (double) elapsed / ops;
+    }
+
+    public void printSummary() {
+        System.out.println();
+        System.out.println(String.format("%-45s %14s %12s", "Benchmark", "us/op", "error"));
+        results.forEach(System.out::println);
+    }
+}
@@ -0,0 +1,26 @@
+package com.financialanalysis.benchmark;
+
+import java.util.regex.Pattern;
+
+/**
+ * Runs every benchmark over synthetic series of each size. An optional argument is a regex, only
+ * benchmarks whose name (e.g. "AnalysisFunctions.macd[2500]") contains a match are run.
+ */
+public class BenchmarkMain {
+    private static final int[] BARS = {500, 2500, 10000};
+
+    public static void main(String[] args) {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : "");
+        BenchmarkHarness harness = new BenchmarkHarness(filter);
+
+        for(int bars : BARS) {
+            AnalysisBaseFunctionsBenchmark.run(harness, bars);
+            AnalysisFunctionsBenchmark.run(harness, bars);
+            AnalysisToolsBenchmark.run(harness, bars);
+            IndicatorProviderBenchmark.run(harness, bars);
+            StrategyBenchmark.run(harness, bars);
+        }
+
+        harness.printSummary();
+    }
+}
@@ -0,0 +1,30 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.analysis.DefaultIndicatorProvider;
+import com.financialanalysis.analysis.IndicatorProvider;
+import com.financialanalysis.analysis.TaLibIndicatorProvider;
+import com.financialanalysis.data.StockFA;
+
+import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getHighPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getLowPrices;
+
+public class IndicatorProviderBenchmark {
+    public static void run(BenchmarkHarness harness, int bars) {
+        run(harness, bars, "DefaultIndicatorProvider", new DefaultIndicatorProvider());
+        run(harness, bars, "TaLibIndicatorProvider", new TaLibIndicatorProvider());
+    }
+
+    private static void run(BenchmarkHarness harness, int bars, String name, IndicatorProvider provider) {
+        StockFA stock = SyntheticSeries.stock(bars);
+        double[] close = getClosingPrices(stock.getPriceSeries());
+        double[] high = getHighPrices(stock.getPriceSeries());
+        double[] low = getLowPrices(stock.getPriceSeries());
+
+        harness.run(name + ".sma", bars, () -> provider.sma(close, 20));
+        harness.run(name + ".ema", bars, () -> provider.ema(close, 20));
+        harness.run(name + ".bollingerBands", bars, () -> provider.bollingerBands(close, 21));
+        harness.run(name + ".macd", bars, () -> provider.macd(close, 12, 26, 9));
+        harness.run(name + ".averageTrueRange", bars, () -> provider.averageTrueRange(high, low, close, 14));
+    }
+}
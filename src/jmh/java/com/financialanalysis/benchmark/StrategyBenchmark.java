@@ -0,0 +1,33 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.strategy.FlagConfig;
+import com.financialanalysis.strategy.FlagStrategy;
+import com.financialanalysis.strategy.FlagStrategyInput;
+import com.financialanalysis.strategyV2.StrategyInput;
+import com.financialanalysis.strategyV2.bollinger.BollingerChart;
+import com.financialanalysis.strategyV2.bollinger.BollingerEntry;
+import com.financialanalysis.strategyV2.bollinger.BollingerExit;
+import com.financialanalysis.strategyV2.bollinger.BollingerStrategy;
+import com.financialanalysis.workflow.Main;
+
+public class StrategyBenchmark {
+    public static void run(BenchmarkHarness harness, int bars) {
+        StockFA stock = SyntheticSeries.stock(bars);
+
+        BollingerStrategy bollingerStrategy = new BollingerStrategy(new BollingerEntry(), new BollingerExit(), new BollingerChart());
+
+        // A new input computes every indicator, as the first strategy to see a stock does
+        harness.run("BollingerStrategy.run", bars, () -> bollingerStrategy.run(new StrategyInput(stock)));
+
+        // Later strategies on the same input read the indicators the first one computed
+        StrategyInput input = new StrategyInput(stock);
+        harness.run("BollingerStrategy.run.cached", bars, () -> bollingerStrategy.run(input));
+
+        // FlagStrategy only walks the whole history when backtesting
+        Main.backtest = true;
+        Main.runStrategies = false;
+        FlagStrategyInput flagInput = new FlagStrategyInput(stock, FlagConfig.defaultConfig(), SyntheticSeries.START, SyntheticSeries.end(bars));
+        harness.run("FlagStrategy.runStrategy", bars, () -> new FlagStrategy().runStrategy(flagInput));
+    }
+}
@@ -0,0 +1,40 @@
+package com.financialanalysis.benchmark;
+
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.StockPrice;
+import com.financialanalysis.data.Symbol;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic random walk stock histories, so every run benchmarks the same data.
+ */
+public class SyntheticSeries {
+    public static final DateTime START = new DateTime(2000, 1, 3, 0, 0);
+
+    public static StockFA stock(int bars) {
+        Random random = new Random(bars);
+        List<StockPrice> history = new ArrayList<>(bars);
+
+        double close = 50.0;
+        for(int i = 0; i < bars; i++) {
+            double open = close;
+            close = Math.max(1.0, close * (1 + random.nextGaussian() * 0.02));
+            double high = Math.max(open, close) * (1 + random.nextDouble() * 0.01);
+            double low = Math.min(open, close) * (1 - random.nextDouble() * 0.01);
+            double volume = 100000 + random.nextInt(900000);
+
+            history.add(new StockPrice(START.plusDays(i), open, low, high, close, volume));
+        }
+
+        Symbol symbol = new Symbol("BENCH" + bars, "0", "Synthetic", "Stock", "true", "true", "USD");
+        return new StockFA(symbol, history);
+    }
+
+    public static DateTime end(int bars) {
+        return START.plusDays(bars);
+    }
+}
@@ -4,38 +4,36 @@ import lombok.extern.log4j.Log4j;
 
 @Log4j
 public class AnalysisBaseFunctions {
+    private static final double LOWEST_CEILING = 1000000000.0;
 
+    /**
+     * Each value is the root mean square of the deviations over the previous period - 1 indices, where
+     * each deviation is taken from the mean of the period - 1 indices ending at that point.
+     */
     public static double[] stdDev(double[] input, int period) {
         double[] stdDevArr = new double[input.length];
-        double[] devSquared = new double[input.length];
+        stdDev(input, period, stdDevArr, new double[input.length]);
+        return stdDevArr;
+    }
 
-        for(int i = 0; i< input.length; i++){
+    /**
+     * Same as {@link #stdDev(double[], int)} into out. devSquared is scratch space of the same length,
+     * its contents are overwritten.
+     */
+    public static void stdDev(double[] input, int period, double[] out, double[] devSquared) {
+        int window = period - 1;
 
-            int counter = 0;
-            double mean = 0;
-            // Average the input of previous period of intervals
-            for(int j = i; j >= 0 && i - j < period - 1; j--) {
-                mean += input[j];
-                counter++;
-            }
-            mean /= counter;
-
-            // square the deviation
-            double dev = input[i] - mean;
-            devSquared[i] = Math.pow(dev, 2);
-
-            int devCounter = 0;
-            double devMean = 0;
-            // Average the deviation over previous period of intervals
-            for(int j = i; j >= 0 && i - j < period - 1; j--) {
-                devMean += devSquared[j];
-                devCounter++;
-            }
+        WindowSum sum = new WindowSum(input, window);
+        WindowSum devSum = new WindowSum(devSquared, window);
+        for(int i = 0; i < input.length; i++) {
+            int counter = Math.min(i + 1, window);
 
-            devMean /= devCounter;
-            stdDevArr[i] = Math.sqrt(devMean);
+            double dev = input[i] - sum.slide(i) / counter;
+            devSquared[i] = dev * dev;
+
+            // The squares are never negative, but a sum of them left with only rounding error could be
+            out[i] = Math.sqrt(Math.max(0, devSum.slide(i)) / counter);
         }
-        return stdDevArr;
     }
 
     /**
@@ -47,43 +45,47 @@ public class AnalysisBaseFunctions {
     // This may not be thread safe
     public static double[] ema(double[] input, int period) {
         double[] ema = new double[input.length];
+        ema(input, period, ema);
+        return ema;
+    }
+
+    /**
+     * Same as {@link #ema(double[], int)} into out
+     */
+    public static void ema(double[] input, int period, double[] out) {
         double k = 2.0/(period + 1);
 
         double ave = 0;
         for(int i = 0; i < period; i++) {
-            ema[i] = 0;
+            out[i] = 0;
             ave += input[i];
         }
         ave /= period;
 
-        ema[period] = ave;
-//        ema[0] = input[0]; // Seed the first value
+        out[period] = ave;
+//        out[0] = input[0]; // Seed the first value
         for(int i = period+1; i < input.length; i++) {
-            ema[i] = (input[i] * k) + (ema[i-1] * (1 - k));
+            out[i] = (input[i] * k) + (out[i-1] * (1 - k));
         }
-
-        return ema;
     }
 
     public static double[] sma(double[] input, int period) {
         double[] sma = new double[input.length];
+        sma(input, period, sma);
+        return sma;
+    }
 
+    /**
+     * Same as {@link #sma(double[], int)} into out
+     */
+    public static void sma(double[] input, int period, double[] out) {
         // Seed the first value
-        sma[0] = input[0];
+        out[0] = input[0];
+        WindowSum sum = new WindowSum(input, period);
+        sum.slide(0);
         for(int i = 1; i < input.length; i++) {
-            // Compute the average of the previous period indices
-            int counter = 0;
-            double ave = 0;
-            for(int j = i; j >= 0 && j > i - period; j--) {
-                ave += input[j];
-                counter++;
-            }
-            ave /= counter;
-
-            sma[i] = ave;
+            out[i] = sum.slide(i) / Math.min(i + 1, period);
         }
-
-        return sma;
     }
 
     /**
@@ -94,12 +96,19 @@ public class AnalysisBaseFunctions {
         //Seed the first value
         highest[0] = input[0];
 
-        for(int i = 1; i < input.length; i++) {
-            double maxInLookBackPeriod = 0.0;
-            for(int j = i; j >= 0 && j > i - period; j--) {
-                if(input[j] > maxInLookBackPeriod) maxInLookBackPeriod = input[j];
+        // Indices in the look back period whose values are strictly decreasing, so the head is the max
+        int[] deque = new int[input.length];
+        int head = 0;
+        int tail = 0;
+        for(int i = 0; i < input.length; i++) {
+            while(tail > head && input[deque[tail - 1]] <= input[i]) tail--;
+            deque[tail++] = i;
+            while(tail > head && deque[head] <= i - period) head++;
+
+            if(i > 0) {
+                double maxInLookBackPeriod = tail > head ? input[deque[head]] : 0.0;
+                highest[i] = maxInLookBackPeriod > 0.0 ? maxInLookBackPeriod : 0.0;
             }
-            highest[i] = maxInLookBackPeriod;
         }
 
         return highest;
@@ -113,17 +122,27 @@ public class AnalysisBaseFunctions {
         //Seed the first value
         lowest[0] = input[0];
 
-        for(int i = 1; i < input.length; i++) {
-            double lowestInLookBackPeriod = 1000000000.0;
-            for(int j = i; j >= 0 && j > i - period; j--) {
-                if(input[j] < lowestInLookBackPeriod) lowestInLookBackPeriod = input[j];
+        // Indices in the look back period whose values are strictly increasing, so the head is the min
+        int[] deque = new int[input.length];
+        int head = 0;
+        int tail = 0;
+        for(int i = 0; i < input.length; i++) {
+            while(tail > head && input[deque[tail - 1]] >= input[i]) tail--;
+            deque[tail++] = i;
+            while(tail > head && deque[head] <= i - period) head++;
+
+            if(i > 0) {
+                double lowestInLookBackPeriod = tail > head ? input[deque[head]] : LOWEST_CEILING;
+                lowest[i] = lowestInLookBackPeriod < LOWEST_CEILING ? lowestInLookBackPeriod : LOWEST_CEILING;
             }
-            lowest[i] = lowestInLookBackPeriod;
         }
 
         return lowest;
     }
 
+    /**
+     * Each value is the average high - low range over the previous period indices
+     */
     public static double[] averageTrueRange(double[] highPrices, double[] lowPrices, int period) {
         double[] atr = new double[highPrices.length];
 
@@ -131,7 +150,7 @@ public class AnalysisBaseFunctions {
             int counter = 0;
             double ave = 0;
             for(int j = i; j >= 0 && j > i - period; j--) {
-                ave += highPrices[i] - lowPrices[i];
+                ave += highPrices[j] - lowPrices[j];
                 counter++;
             }
             atr[i] = ave/counter;
@@ -139,10 +158,47 @@ public class AnalysisBaseFunctions {
 
         return atr;
     }
-}
-
-
-
 
+    /**
+     * Moves sum from the window of the previous period indices ending at i - 1 to the one ending at i.
+     * Every period steps the sum is recomputed in full so rounding error can't build up over a long series.
+     * It is also recomputed when most of the sum has been taken away again, e.g. the squared deviations of
+     * a volatile series that goes flat, as what is left would be mostly rounding error.
+     */
+    private static final class WindowSum {
+        // Cancellation beyond this fraction of churn leaves too few good bits in sum
+        private static final double CANCELLATION = 1e-9;
+
+        private final double[] input;
+        private final int period;
+        private double sum;
+        // Magnitude added and taken away since sum was last recomputed, which bounds its rounding error
+        private double churn;
+
+        WindowSum(double[] input, int period) {
+            this.input = input;
+            this.period = period;
+        }
 
+        double slide(int i) {
+            if(period <= 0) {
+                return 0;
+            }
 
+            double removed = i - period >= 0 ? input[i - period] : 0;
+            sum += input[i];
+            sum -= removed;
+            churn += Math.abs(input[i]) + Math.abs(removed);
+
+            if(i % period == 0 || Math.abs(sum) < churn * CANCELLATION) {
+                double exact = 0;
+                for(int j = i; j >= 0 && j > i - period; j--) {
+                    exact += input[j];
+                }
+                sum = exact;
+                churn = Math.abs(exact);
+            }
+            return sum;
+        }
+    }
+}
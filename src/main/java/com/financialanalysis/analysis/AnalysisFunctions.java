@@ -10,7 +10,6 @@ import java.util.List;
 import static com.financialanalysis.analysis.AnalysisBaseFunctions.ema;
 import static com.financialanalysis.analysis.AnalysisBaseFunctions.sma;
 import static com.financialanalysis.analysis.AnalysisBaseFunctions.stdDev;
-import static com.financialanalysis.analysis.AnalysisTools.add;
 import static com.financialanalysis.analysis.AnalysisTools.div;
 import static com.financialanalysis.analysis.AnalysisTools.mult;
 import static com.financialanalysis.analysis.AnalysisTools.sub;
@@ -23,19 +22,10 @@ public class AnalysisFunctions {
      * MACD Histogram: MACD Line - Signal Line
      */
     public static AnalysisFunctionResult macd(double[] prices, int fastPeriod, int slowPeriod, int signalPeriod) {
-        double[] fastEma = ema(prices, fastPeriod);
-        double[] slowEma = ema(prices, slowPeriod);
-
-        double[] macd = sub(fastEma, slowEma);
-        double[] macdSignal = sma(macd, signalPeriod);
-        double[] macdHist = sub(macd, macdSignal);
-
-        //Zero out the first slowPeriod + signalPeriod
-        for(int i = 0; i < slowPeriod + signalPeriod; i++) {
-            macd[i] = 0;
-            macdSignal[i] = 0;
-            macdHist[i] = 0;
-        }
+        double[] macd = new double[prices.length];
+        double[] macdSignal = new double[prices.length];
+        double[] macdHist = new double[prices.length];
+        macd(prices, fastPeriod, slowPeriod, signalPeriod, macd, macdSignal, macdHist);
 
         AnalysisFunctionResult results = new AnalysisFunctionResult();
         results.setBeginIndex(slowPeriod + signalPeriod);
@@ -45,14 +35,36 @@ public class AnalysisFunctions {
         return results;
     }
 
-    public static AnalysisFunctionResult bollingerBands(double[] input, int period) {
-        double[] bbMid = sma(input, period);
+    /**
+     * Same as {@link #macd(double[], int, int, int)} into the given arrays, which must be as long as
+     * prices. The slow EMA is built in macdHist before it is overwritten, so nothing else is allocated.
+     * The EMAs and the signal are recurrences, the subtractions are kept as separate element wise loops
+     * so the JIT can vectorize them.
+     */
+    public static void macd(double[] prices, int fastPeriod, int slowPeriod, int signalPeriod,
+                            double[] macd, double[] macdSignal, double[] macdHist) {
+        checkLength(prices, macd, macdSignal, macdHist);
 
-        double[] stdDev = stdDev(input, period);
-        double[] stdDev2 = mult(stdDev, 2);
+        ema(prices, fastPeriod, macd);
+        ema(prices, slowPeriod, macdHist);
+        sub(macd, macdHist, macd);
 
-        double[] bbHigh = add(bbMid, stdDev2);
-        double[] bbLow = sub(bbMid, stdDev2);
+        sma(macd, signalPeriod, macdSignal);
+        sub(macd, macdSignal, macdHist);
+
+        //Zero out the first slowPeriod + signalPeriod
+        for(int i = 0; i < slowPeriod + signalPeriod; i++) {
+            macd[i] = 0;
+            macdSignal[i] = 0;
+            macdHist[i] = 0;
+        }
+    }
+
+    public static AnalysisFunctionResult bollingerBands(double[] input, int period) {
+        double[] bbMid = new double[input.length];
+        double[] bbHigh = new double[input.length];
+        double[] bbLow = new double[input.length];
+        bollingerBands(input, period, bbMid, bbHigh, bbLow);
 
         AnalysisFunctionResult results = new AnalysisFunctionResult();
         results.setBbHigh(bbHigh);
@@ -61,6 +73,29 @@ public class AnalysisFunctions {
         return results;
     }
 
+    /**
+     * Same as {@link #bollingerBands(double[], int)} into the given arrays, which must be as long as
+     * input. The standard deviation is built in bbHigh, using bbLow as scratch, and then both bands
+     * are set from it in one vectorizable loop.
+     */
+    public static void bollingerBands(double[] input, int period, double[] bbMid, double[] bbHigh, double[] bbLow) {
+        checkLength(input, bbMid, bbHigh, bbLow);
+
+        sma(input, period, bbMid);
+        stdDev(input, period, bbHigh, bbLow);
+        for(int i = 0; i < input.length; i++) {
+            double width = bbHigh[i] * 2;
+            bbHigh[i] = bbMid[i] + width;
+            bbLow[i] = bbMid[i] - width;
+        }
+    }
+
+    private static void checkLength(double[] input, double[]... outputs) {
+        for(double[] output : outputs) {
+            if(output.length != input.length) throw new RuntimeException("Arrays length not equal");
+        }
+    }
+
     /**
      * ADX, first 40 intervals are invalid
      */
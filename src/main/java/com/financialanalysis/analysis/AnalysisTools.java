@@ -1,6 +1,8 @@
 package com.financialanalysis.analysis;
 
 import com.beust.jcommander.internal.Lists;
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.data.Trend;
@@ -45,6 +47,54 @@ public class AnalysisTools {
         return quotes.stream().map(q -> q.getDate()).collect(Collectors.toList());
     }
 
+    public static double[] getClosingPrices(PriceSeries series) {
+        double[] res = new double[series.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = series.closeAt(i);
+        }
+        return res;
+    }
+
+    public static double[] getHighPrices(PriceSeries series) {
+        double[] res = new double[series.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = series.highAt(i);
+        }
+        return res;
+    }
+
+    public static double[] getLowPrices(PriceSeries series) {
+        double[] res = new double[series.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = series.lowAt(i);
+        }
+        return res;
+    }
+
+    public static double[] getOpenPrices(PriceSeries series) {
+        double[] res = new double[series.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = series.openAt(i);
+        }
+        return res;
+    }
+
+    public static double[] getVolume(PriceSeries series) {
+        double[] res = new double[series.size()];
+        for(int i = 0; i < res.length; i++) {
+            res[i] = series.volumeAt(i);
+        }
+        return res;
+    }
+
+    public static List<DateTime> getDates(PriceSeries series) {
+        List<DateTime> dates = new ArrayList<>(series.size());
+        for(int i = 0; i < series.size(); i++) {
+            dates.add(series.dateAt(i));
+        }
+        return dates;
+    }
+
     public static double[] deepCopyArray(double[] array) {
         double[] deep = new double[array.length];
         for(int i = 0; i < array.length; i++) {
@@ -65,39 +115,72 @@ public class AnalysisTools {
     }
 
     public static double[] sub(double[] from, double[] to) {
-        if(from.length != to.length) throw new RuntimeException("Arrays length not equal");
         double[] res = new double[from.length];
+        sub(from, to, res);
+        return res;
+    }
+
+    /**
+     * from - to into res, which may be either of them. The element wise ops are plain counted loops
+     * so the JIT can vectorize them.
+     */
+    public static void sub(double[] from, double[] to, double[] res) {
+        if(from.length != to.length || res.length != from.length) throw new RuntimeException("Arrays length not equal");
 
         for(int i = 0; i < from.length; i++) {
             res[i] = from[i] - to[i];
         }
-        return res;
     }
 
     public static double[] add(double[] from, double[] to) {
-        if(from.length != to.length) throw new RuntimeException("Arrays length not equal");
         double[] res = new double[from.length];
+        add(from, to, res);
+        return res;
+    }
+
+    /**
+     * from + to into res, which may be either of them
+     */
+    public static void add(double[] from, double[] to, double[] res) {
+        if(from.length != to.length || res.length != from.length) throw new RuntimeException("Arrays length not equal");
 
         for(int i = 0; i < from.length; i++) {
             res[i] = from[i] + to[i];
         }
-        return res;
     }
 
     public static double[] mult(double[] input, double factor) {
         double[] res = new double[input.length];
+        mult(input, factor, res);
+        return res;
+    }
+
+    /**
+     * input * factor into res, which may be input
+     */
+    public static void mult(double[] input, double factor, double[] res) {
+        if(res.length != input.length) throw new RuntimeException("Arrays length not equal");
+
         for(int i = 0; i < input.length; i++) {
             res[i] = input[i] * factor;
         }
-        return res;
     }
 
     public static double[] div(double[] input, double factor) {
         double[] res = new double[input.length];
+        div(input, factor, res);
+        return res;
+    }
+
+    /**
+     * input / factor into res, which may be input
+     */
+    public static void div(double[] input, double factor, double[] res) {
+        if(res.length != input.length) throw new RuntimeException("Arrays length not equal");
+
         for(int i = 0; i < input.length; i++) {
             res[i] = input[i] / factor;
         }
-        return res;
     }
 
     public static double[] div(double[] from, double[] to) {
@@ -138,10 +221,19 @@ public class AnalysisTools {
 
     public static double[] addConst(double[] a, double s) {
         double[] n = new double[a.length];
+        addConst(a, s, n);
+        return n;
+    }
+
+    /**
+     * a + s into n, which may be a
+     */
+    public static void addConst(double[] a, double s, double[] n) {
+        if(n.length != a.length) throw new RuntimeException("Arrays length not equal");
+
         for(int i = 0; i < a.length; i++) {
             n[i] = a[i] + s;
         }
-        return n;
     }
 
     public static int randInt(int min, int max) {
@@ -159,18 +251,36 @@ public class AnalysisTools {
     }
 
     /**
-     * Given a list of stock prices, return the sublist between start and end dates.
+     * Given a chronological list of stock prices, return the view of the trading days from start to end inclusive.
      */
     public static List<StockPrice> getValidStockPrices(List<StockPrice> allPrices, DateTime start, DateTime end) {
-        List<StockPrice> valid = Lists.newArrayList();
-        for(StockPrice sp : allPrices) {
-            DateTime curDate = sp.getDate();
-            if(curDate.isAfter(start.minusDays(1)) && curDate.isBefore(end.plusDays(1))) {
-                valid.add(sp);
+        int from = indexOfDay(allPrices, DateTimeUtils.toEpochDay(start));
+        int to = Math.max(from, indexOfDay(allPrices, DateTimeUtils.toEpochDay(end) + 1));
+        return allPrices.subList(from, to);
+    }
+
+    /**
+     * Index of the first price on or after epochDay, see {@link PriceSeries#indexOfDay(int)}
+     */
+    private static int indexOfDay(List<StockPrice> prices, int epochDay) {
+        int lo = 0;
+        int hi = prices.size();
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(DateTimeUtils.toEpochDay(prices.get(mid).getDate()) < epochDay) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
+        return lo;
+    }
 
-        return valid;
+    /**
+     * Given a series, return the view of the trading days from start to end inclusive.
+     */
+    public static PriceSeries getValidPriceSeries(PriceSeries series, DateTime start, DateTime end) {
+        return series.range(DateTimeUtils.toEpochDay(start), DateTimeUtils.toEpochDay(end));
     }
 
     public static Map<Integer, Point> max(double[] input, int lookBack, int lookForward) {
@@ -256,6 +366,33 @@ public class AnalysisTools {
             }
         }
 
+        return toTrend(sr, pointsInTrend, dates, symbol);
+    }
+
+    /**
+     * Same as findTrend over the map from max or min of the series up to startIdx, but reads the
+     * extrema from an index built once over the whole series. Points are added in the same order.
+     */
+    public static Trend findTrend(ExtremaIndex extrema, int startIdx, int period, List<DateTime> dates, Symbol symbol) {
+        SimpleRegression sr = new SimpleRegression();
+        List<Point> pointsInTrend = new ArrayList<>();
+
+        for(int k = extrema.floor(startIdx); k >= 0 && extrema.positionAt(k) >= startIdx - period; k--) {
+            if(extrema.isExtremaUpTo(k, startIdx)) {
+                int x = extrema.positionAt(k);
+                double y = extrema.valueAt(k);
+                sr.addData(x, y);
+                pointsInTrend.add(new Point(x, y));
+            }
+        }
+
+        return toTrend(sr, pointsInTrend, dates, symbol);
+    }
+
+    /**
+     * pointsInTrend: points of the trend, latest first
+     */
+    private static Trend toTrend(SimpleRegression sr, List<Point> pointsInTrend, List<DateTime> dates, Symbol symbol) {
         List<Point> pointsCorrectOrder = com.google.common.collect.Lists.reverse(pointsInTrend);
         DateTime start = new DateTime();
         DateTime end  = new DateTime();
@@ -0,0 +1,37 @@
+package com.financialanalysis.analysis;
+
+import com.google.inject.Singleton;
+
+/**
+ * The indicators as implemented in {@link AnalysisBaseFunctions} and {@link AnalysisFunctions}
+ */
+@Singleton
+public class DefaultIndicatorProvider implements IndicatorProvider {
+    @Override
+    public double[] sma(double[] input, int period) {
+        return AnalysisBaseFunctions.sma(input, period);
+    }
+
+    @Override
+    public double[] ema(double[] input, int period) {
+        return AnalysisBaseFunctions.ema(input, period);
+    }
+
+    @Override
+    public AnalysisFunctionResult bollingerBands(double[] input, int period) {
+        return AnalysisFunctions.bollingerBands(input, period);
+    }
+
+    @Override
+    public AnalysisFunctionResult macd(double[] prices, int fastPeriod, int slowPeriod, int signalPeriod) {
+        return AnalysisFunctions.macd(prices, fastPeriod, slowPeriod, signalPeriod);
+    }
+
+    /**
+     * Average of the high - low range, gaps from the previous close are not counted
+     */
+    @Override
+    public double[] averageTrueRange(double[] high, double[] low, double[] close, int period) {
+        return AnalysisBaseFunctions.averageTrueRange(high, low, period);
+    }
+}
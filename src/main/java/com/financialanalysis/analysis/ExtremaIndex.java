@@ -0,0 +1,102 @@
+package com.financialanalysis.analysis;
+
+import java.util.Arrays;
+
+/**
+ * The local maxima or minima of a series, as AnalysisTools.max and min find them, for every prefix
+ * of the series at once.
+ *
+ * A point is an extrema of the prefix ending at end if nothing in its look back window beats it, and
+ * nothing in its look forward window up to end beats it. The look back part never depends on the
+ * prefix, so only the points that pass it are kept, in position order. For each of them the index
+ * keeps the first position in the look forward window that beats it. The point is an extrema of
+ * every prefix that ends before that position.
+ */
+public class ExtremaIndex {
+    private static final int NEVER = Integer.MAX_VALUE;
+
+    private final int[] positions;
+    private final double[] values;
+    private final int[] beatenAt;
+
+    private ExtremaIndex(int[] positions, double[] values, int[] beatenAt) {
+        this.positions = positions;
+        this.values = values;
+        this.beatenAt = beatenAt;
+    }
+
+    public static ExtremaIndex max(double[] input, int lookBack, int lookForward) {
+        return build(input, lookBack, lookForward, true);
+    }
+
+    public static ExtremaIndex min(double[] input, int lookBack, int lookForward) {
+        return build(input, lookBack, lookForward, false);
+    }
+
+    private static ExtremaIndex build(double[] input, int lookBack, int lookForward, boolean max) {
+        int size = Math.max(0, input.length - Math.max(lookBack, 0));
+        int[] positions = new int[size];
+        double[] values = new double[size];
+        int[] beatenAt = new int[size];
+
+        int count = 0;
+        for(int i = Math.max(lookBack, 0); i < input.length; i++) {
+            double cur = input[i];
+
+            boolean beatenBefore = false;
+            for(int j = i - 1; j >= 0 && j >= i - lookBack; j--) {
+                if(beats(input[j], cur, max)) {
+                    beatenBefore = true;
+                    break;
+                }
+            }
+            if(beatenBefore) continue;
+
+            int beaten = NEVER;
+            for(int j = i + 1; j < input.length && j <= i + lookForward; j++) {
+                if(beats(input[j], cur, max)) {
+                    beaten = j;
+                    break;
+                }
+            }
+
+            positions[count] = i;
+            values[count] = cur;
+            beatenAt[count] = beaten;
+            count++;
+        }
+
+        return new ExtremaIndex(
+                Arrays.copyOf(positions, count),
+                Arrays.copyOf(values, count),
+                Arrays.copyOf(beatenAt, count)
+        );
+    }
+
+    private static boolean beats(double other, double cur, boolean max) {
+        return max ? other > cur : other < cur;
+    }
+
+    /**
+     * Index of the last kept point at or before position, -1 if there is none
+     */
+    public int floor(int position) {
+        int found = Arrays.binarySearch(positions, position);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    public int positionAt(int k) {
+        return positions[k];
+    }
+
+    public double valueAt(int k) {
+        return values[k];
+    }
+
+    /**
+     * True if the kth kept point is an extrema of the prefix of the series ending at end
+     */
+    public boolean isExtremaUpTo(int k, int end) {
+        return positions[k] <= end && beatenAt[k] > end;
+    }
+}
@@ -0,0 +1,64 @@
+package com.financialanalysis.analysis;
+
+import com.financialanalysis.data.PriceSeries;
+import lombok.Data;
+import lombok.SneakyThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Indicator arrays for one evaluation of one stock, shared by every strategy, entry, exit and chart
+ * looking at it. Each indicator is computed by the provider the first time it is asked for.
+ *
+ * A cache belongs to one series, see {@link com.financialanalysis.strategyV2.StrategyInput}, and is
+ * dropped with it, so it never holds more than one stock's indicators and can never hand out arrays
+ * computed from older data. Callers must not modify the arrays. An evaluation runs on one thread, so
+ * the cache isn't thread safe.
+ */
+public class IndicatorCache {
+    private final IndicatorProvider provider;
+    private final PriceSeries series;
+    private final Map<IndicatorKey, Object> cache = new HashMap<>();
+
+    public IndicatorCache(IndicatorProvider provider, PriceSeries series) {
+        this.provider = provider;
+        this.series = series;
+    }
+
+    public double[] closingPrices() {
+        return get("close", new int[0], () -> AnalysisTools.getClosingPrices(series));
+    }
+
+    public double[] sma(int period) {
+        return get("sma", new int[]{period}, () -> provider.sma(closingPrices(), period));
+    }
+
+    public AnalysisFunctionResult bollingerBands(int period) {
+        return get("bollingerBands", new int[]{period}, () -> provider.bollingerBands(closingPrices(), period));
+    }
+
+    public AnalysisFunctionResult macd(int fastPeriod, int slowPeriod, int signalPeriod) {
+        return get("macd", new int[]{fastPeriod, slowPeriod, signalPeriod},
+                () -> provider.macd(closingPrices(), fastPeriod, slowPeriod, signalPeriod));
+    }
+
+    @SneakyThrows
+    @SuppressWarnings("unchecked")
+    private <T> T get(String indicator, int[] params, Callable<T> compute) {
+        IndicatorKey key = new IndicatorKey(indicator, params);
+        Object value = cache.get(key);
+        if(value == null) {
+            value = compute.call();
+            cache.put(key, value);
+        }
+        return (T) value;
+    }
+
+    @Data
+    private static class IndicatorKey {
+        private final String indicator;
+        private final int[] params;
+    }
+}
@@ -0,0 +1,25 @@
+package com.financialanalysis.analysis;
+
+/**
+ * Computes the indicators the strategies use. Every array returned is as long as the input, with
+ * the warm up at the start of it left as 0.
+ *
+ * Picked with --indicators, see {@link com.financialanalysis.guice.FAModule}.
+ */
+public interface IndicatorProvider {
+    double[] sma(double[] input, int period);
+
+    double[] ema(double[] input, int period);
+
+    /**
+     * Mid is the sma of the period, high and low are two standard deviations either side of it
+     */
+    AnalysisFunctionResult bollingerBands(double[] input, int period);
+
+    /**
+     * Line is fast ema - slow ema, the signal is the sma of the line and the histogram is line - signal
+     */
+    AnalysisFunctionResult macd(double[] prices, int fastPeriod, int slowPeriod, int signalPeriod);
+
+    double[] averageTrueRange(double[] high, double[] low, double[] close, int period);
+}
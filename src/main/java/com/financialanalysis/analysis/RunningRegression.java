@@ -0,0 +1,117 @@
+package com.financialanalysis.analysis;
+
+/**
+ * Least squares line over a window of points that can grow or shrink by one point at a time, without
+ * allocating. Gives the same slope, intercept and r squared as commons-math SimpleRegression up to
+ * rounding, including when those are NaN.
+ *
+ * Keeps running sums of x, y, xy, x^2 and y^2. They are taken relative to the first point added
+ * after a clear, so prices and day indexes stay small and the centered sums lose little precision.
+ */
+public class RunningRegression {
+    private double x0;
+    private double y0;
+
+    private long n;
+    private double sumX;
+    private double sumY;
+    private double sumXY;
+    private double sumXX;
+    private double sumYY;
+
+    public void addData(double x, double y) {
+        if(n == 0) {
+            x0 = x;
+            y0 = y;
+        }
+        double dx = x - x0;
+        double dy = y - y0;
+        n++;
+        sumX += dx;
+        sumY += dy;
+        sumXY += dx * dy;
+        sumXX += dx * dx;
+        sumYY += dy * dy;
+    }
+
+    /**
+     * Take out a point that was added before
+     */
+    public void removeData(double x, double y) {
+        if(n == 0) {
+            return;
+        }
+        double dx = x - x0;
+        double dy = y - y0;
+        n--;
+        sumX -= dx;
+        sumY -= dy;
+        sumXY -= dx * dy;
+        sumXX -= dx * dx;
+        sumYY -= dy * dy;
+        if(n == 0) {
+            clear();
+        }
+    }
+
+    public void clear() {
+        n = 0;
+        x0 = 0;
+        y0 = 0;
+        sumX = 0;
+        sumY = 0;
+        sumXY = 0;
+        sumXX = 0;
+        sumYY = 0;
+    }
+
+    public long getN() {
+        return n;
+    }
+
+    public double getSlope() {
+        if(n < 2) {
+            return Double.NaN;
+        }
+        double sxx = centeredXX();
+        if(Math.abs(sxx) < 10 * Double.MIN_VALUE) {
+            return Double.NaN;
+        }
+        return centeredXY() / sxx;
+    }
+
+    public double getIntercept() {
+        double slope = getSlope();
+        return y0 + (sumY - slope * sumX) / n - slope * x0;
+    }
+
+    public double getRSquare() {
+        double ssto = getTotalSumSquares();
+        return (ssto - getSumSquaredErrors()) / ssto;
+    }
+
+    public double getTotalSumSquares() {
+        if(n < 2) {
+            return Double.NaN;
+        }
+        return centeredYY();
+    }
+
+    public double getSumSquaredErrors() {
+        double sxy = centeredXY();
+        return Math.max(0d, centeredYY() - sxy * sxy / centeredXX());
+    }
+
+    // Sums of squares and products of deviations from the mean, clamped where rounding could make them negative
+    private double centeredXX() {
+        return Math.max(0d, sumXX - sumX * sumX / n);
+    }
+
+    private double centeredYY() {
+        return Math.max(0d, sumYY - sumY * sumY / n);
+    }
+
+    private double centeredXY() {
+        return sumXY - sumX * sumY / n;
+    }
+}
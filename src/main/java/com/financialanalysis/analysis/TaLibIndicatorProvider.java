@@ -0,0 +1,131 @@
+package com.financialanalysis.analysis;
+
+import com.google.inject.Singleton;
+import com.tictactec.ta.lib.Core;
+import com.tictactec.ta.lib.MAType;
+import com.tictactec.ta.lib.MInteger;
+import com.tictactec.ta.lib.RetCode;
+
+import java.util.Arrays;
+
+/**
+ * The indicators computed by TA-Lib.
+ *
+ * TA-Lib writes its output from index 0, where the first value belongs to the input at outBegIdx.
+ * Each result is shifted back into line with the input so it can be used in place of
+ * {@link DefaultIndicatorProvider}. Results differ from the default during warm up, and where the
+ * default has its own take on an indicator, e.g. its ema is seeded one day later and its standard
+ * deviation uses period - 1 days.
+ *
+ * TA-Lib rejects an empty range, so an empty series gives empty results without calling it.
+ */
+@Singleton
+public class TaLibIndicatorProvider implements IndicatorProvider {
+    // Only holds settings that are never changed, so it is safe to share between threads
+    private final Core core = new Core();
+
+    @Override
+    public double[] sma(double[] input, int period) {
+        if(input.length == 0) {
+            return new double[0];
+        }
+        double[] out = new double[input.length];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        check("sma", core.sma(0, input.length - 1, input, period, begin, length, out));
+        return align(out, begin, length);
+    }
+
+    @Override
+    public double[] ema(double[] input, int period) {
+        if(input.length == 0) {
+            return new double[0];
+        }
+        double[] out = new double[input.length];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        check("ema", core.ema(0, input.length - 1, input, period, begin, length, out));
+        return align(out, begin, length);
+    }
+
+    @Override
+    public AnalysisFunctionResult bollingerBands(double[] input, int period) {
+        if(input.length == 0) {
+            AnalysisFunctionResult results = new AnalysisFunctionResult();
+            results.setBbHigh(new double[0]);
+            results.setBbLow(new double[0]);
+            results.setBbMid(new double[0]);
+            return results;
+        }
+        double[] high = new double[input.length];
+        double[] mid = new double[input.length];
+        double[] low = new double[input.length];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        check("bbands", core.bbands(0, input.length - 1, input, period, 2.0, 2.0, MAType.Sma, begin, length, high, mid, low));
+
+        AnalysisFunctionResult results = new AnalysisFunctionResult();
+        results.setBeginIndex(begin.value);
+        results.setBbHigh(align(high, begin, length));
+        results.setBbLow(align(low, begin, length));
+        results.setBbMid(align(mid, begin, length));
+        return results;
+    }
+
+    @Override
+    public AnalysisFunctionResult macd(double[] prices, int fastPeriod, int slowPeriod, int signalPeriod) {
+        if(prices.length == 0) {
+            AnalysisFunctionResult results = new AnalysisFunctionResult();
+            results.setMacdHist(new double[0]);
+            results.setMacd(new double[0]);
+            results.setMacdSignal(new double[0]);
+            return results;
+        }
+        double[] macd = new double[prices.length];
+        double[] macdSignal = new double[prices.length];
+        double[] macdHist = new double[prices.length];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        // Sma signal to match the default rather than TA-Lib's usual ema
+        check("macdExt", core.macdExt(0, prices.length - 1, prices, fastPeriod, MAType.Ema, slowPeriod, MAType.Ema,
+                signalPeriod, MAType.Sma, begin, length, macd, macdSignal, macdHist));
+
+        AnalysisFunctionResult results = new AnalysisFunctionResult();
+        results.setBeginIndex(begin.value);
+        results.setMacdHist(align(macdHist, begin, length));
+        results.setMacd(align(macd, begin, length));
+        results.setMacdSignal(align(macdSignal, begin, length));
+        return results;
+    }
+
+    @Override
+    public double[] averageTrueRange(double[] high, double[] low, double[] close, int period) {
+        if(high.length == 0) {
+            return new double[0];
+        }
+        double[] out = new double[high.length];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        check("atr", core.atr(0, high.length - 1, high, low, close, period, begin, length, out));
+        return align(out, begin, length);
+    }
+
+    private static void check(String indicator, RetCode code) {
+        if(code != RetCode.Success) {
+            throw new IllegalArgumentException("TA-Lib " + indicator + " failed: " + code);
+        }
+    }
+
+    /**
+     * Moves the length values TA-Lib wrote at the start of out to begin onwards, zeroing the warm up
+     */
+    private static double[] align(double[] out, MInteger begin, MInteger length) {
+        if(length.value == 0) {
+            Arrays.fill(out, 0);
+            return out;
+        }
+        System.arraycopy(out, 0, out, begin.value, length.value);
+        Arrays.fill(out, 0, begin.value, 0);
+        return out;
+    }
+}
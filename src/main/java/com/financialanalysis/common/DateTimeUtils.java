@@ -1,16 +1,39 @@
 package com.financialanalysis.common;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
 
 public class DateTimeUtils {
     private static String TIMEZONE_ID = "America/Toronto";
+    private static final DateTimeZone TIMEZONE = DateTimeZone.forID(TIMEZONE_ID);
 
     public static DateTime getToday() {
         return DateTime.now(DateTimeZone.forID(TIMEZONE_ID)).withTimeAtStartOfDay();
     }
 
     public static DateTimeZone getTimeZone() {
-        return DateTimeZone.forID(TIMEZONE_ID);
+        return TIMEZONE;
+    }
+
+    /**
+     * Number of days since 1970-01-01 for the trading day date falls on, in the market time zone
+     */
+    public static int toEpochDay(DateTime date) {
+        return toEpochDay(date.getMillis());
+    }
+
+    public static int toEpochDay(long epochMillis) {
+        long localMillis = epochMillis + getTimeZone().getOffset(epochMillis);
+        return (int) Math.floorDiv(localMillis, (long) DateTimeConstants.MILLIS_PER_DAY);
+    }
+
+    /**
+     * Start of the trading day epochDay days after 1970-01-01, in the market time zone
+     */
+    public static DateTime fromEpochDay(int epochDay) {
+        LocalDate day = new LocalDate((long) epochDay * DateTimeConstants.MILLIS_PER_DAY, DateTimeZone.UTC);
+        return day.toDateTimeAtStartOfDay(getTimeZone());
     }
 }
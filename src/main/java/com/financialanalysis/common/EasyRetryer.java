@@ -1,5 +1,168 @@
 package com.financialanalysis.common;
 
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries a call without holding a thread while it backs off. Each attempt runs on the given
+ * executor, and the next one is handed to a scheduler to start after the delay, so the thread is
+ * free to make other calls in the mean time.
+ *
+ * Only attempts that throw {@link RetryException} are retried. The delay doubles from baseDelayMillis
+ * up to maxDelayMillis with equal jitter, unless the server said how long to wait with Retry-After.
+ *
+ * Each host has a circuit breaker. After breakerFailures failures in a row, attempts that had to be
+ * retried or that couldn't reach the host at all, the breaker opens and
+ * calls to the host fail straight away with {@link CircuitOpenException} for breakerOpenMillis. Then
+ * one call is let through, and the breaker closes if it succeeds or opens again if it fails.
+ */
+@Log4j
 public class EasyRetryer {
+    // Only schedules the next attempt, the attempts themselves run on the caller's executor
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "EasyRetryer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final int maxTries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int breakerFailures;
+    private final long breakerOpenMillis;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public EasyRetryer(String name, int maxTries, long baseDelayMillis, long maxDelayMillis, int breakerFailures, long breakerOpenMillis) {
+        this.name = name;
+        this.maxTries = maxTries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.breakerFailures = breakerFailures;
+        this.breakerOpenMillis = breakerOpenMillis;
+    }
+
+    /**
+     * Runs attempt on executor until it succeeds, fails with anything but a RetryException or has been
+     * tried maxTries times. The future fails with the last attempt's exception.
+     */
+    public <T> CompletableFuture<T> call(String host, Callable<T> attempt, Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CircuitBreaker breaker = breakers.computeIfAbsent(host, h -> new CircuitBreaker());
+        executor.execute(() -> attempt(host, breaker, attempt, executor, result, 1));
+        return result;
+    }
+
+    private <T> void attempt(String host, CircuitBreaker breaker, Callable<T> attempt, Executor executor, CompletableFuture<T> result, int tries) {
+        if(!breaker.allow()) {
+            result.completeExceptionally(new CircuitOpenException(name + " circuit open for " + host));
+            return;
+        }
+
+        try {
+            T value = attempt.call();
+            breaker.onSuccess();
+            result.complete(value);
+        } catch (RetryException e) {
+            breaker.onFailure();
+            if(tries >= maxTries) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            long delay = e.getRetryAfterMillis() >= 0 ? e.getRetryAfterMillis() : backoff(tries);
+            log.info(String.format("%s %s failed with %s, try %d in %d ms", name, host, e.getMessage(), tries + 1, delay));
+            SCHEDULER.schedule(() -> executor.execute(() -> attempt(host, breaker, attempt, executor, result, tries + 1)),
+                    delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // An error response means the server answered, so it is up even if the request was bad.
+            // Only failing to reach it, like a refused connection or a timeout, counts against it.
+            if(e instanceof IOException && !(e instanceof HttpResponseException)) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Half of the exponential delay plus a random part of the other half, so callers that failed
+     * together don't all come back at once
+     */
+    private long backoff(int tries) {
+        long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(tries - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private class CircuitBreaker {
+        private int failures;
+        private long openUntil;
+        private boolean trial;
+
+        synchronized boolean allow() {
+            if(failures < breakerFailures) {
+                return true;
+            }
+            // Open, let one call through once the open time is up
+            if(!trial && System.currentTimeMillis() >= openUntil) {
+                trial = true;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void onSuccess() {
+            failures = 0;
+            trial = false;
+        }
+
+        synchronized void onFailure() {
+            failures++;
+            if(failures >= breakerFailures) {
+                if(trial || failures == breakerFailures) {
+                    log.error(name + " circuit opened after " + failures + " failures in a row");
+                }
+                openUntil = System.currentTimeMillis() + breakerOpenMillis;
+                trial = false;
+            }
+        }
+    }
+
+    /**
+     * Thrown by an attempt that should be tried again. retryAfterMillis is how long the server asked
+     * to wait, or -1 if it didn't say.
+     */
+    public static class RetryException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        @Getter
+        private final long retryAfterMillis;
+
+        public RetryException(String message, long retryAfterMillis) {
+            super(message);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
 
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,101 @@
+package com.financialanalysis.common;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Throttles the calls made to one data provider. At most maxConcurrent calls are in flight at once,
+ * and calls start no faster than permitsPerSecond.
+ *
+ * Calls that are retried should go through {@link #executor}, so each attempt takes its own permit
+ * and rate token and gives the permit back before backing off.
+ */
+public class ProviderLimiter {
+    private final String name;
+    private final RateLimiter rateLimiter;
+    private final Semaphore inFlight;
+    // Waits for the permits of async calls, so the threads that start them never block on the limits
+    private final ExecutorService dispatcher;
+
+    public ProviderLimiter(String name, double permitsPerSecond, int maxConcurrent) {
+        this.name = name;
+        this.rateLimiter = RateLimiter.create(permitsPerSecond);
+        this.inFlight = new Semaphore(maxConcurrent, true);
+        this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name + "Limiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts request once the limits allow and returns straight away. The call counts as in flight
+     * until the future request returns is done, not just until request returns it.
+     */
+    public <T> CompletableFuture<T> callAsync(Callable<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        dispatcher.execute(() -> {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            CompletableFuture<T> call;
+            try {
+                rateLimiter.acquire();
+                call = request.call();
+            } catch (Throwable e) {
+                inFlight.release();
+                result.completeExceptionally(e);
+                return;
+            }
+
+            call.whenComplete((value, e) -> {
+                inFlight.release();
+                if(e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * An executor that runs each task on delegate once the limits allow, holding a permit only while
+     * the task runs. Tasks are queued without blocking, so a retry scheduler can hand attempts to it.
+     */
+    public Executor executor(Executor delegate) {
+        return task -> dispatcher.execute(() -> {
+            // The task can't be failed from here, so it waits for its permit however long it takes
+            inFlight.acquireUninterruptibly();
+            try {
+                rateLimiter.acquire();
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (Throwable e) {
+                inFlight.release();
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,124 @@
+package com.financialanalysis.data;
+
+import com.financialanalysis.common.DateTimeUtils;
+import org.joda.time.DateTime;
+
+import java.util.List;
+
+/**
+ * Heap PriceSeries holding each field in its own primitive array. The arrays are filled once
+ * and shared by every view taken from the series.
+ */
+public class ArrayPriceSeries implements PriceSeries {
+    private final long[] epochMillis;
+    // Trading day of each row, kept next to the millis so range lookups don't convert time zones
+    private final int[] epochDays;
+    private final double[] open;
+    private final double[] low;
+    private final double[] high;
+    private final double[] close;
+    private final double[] volume;
+
+    private final int offset;
+    private final int size;
+
+    public ArrayPriceSeries(long[] epochMillis, double[] open, double[] low, double[] high, double[] close, double[] volume) {
+        this(epochMillis, toEpochDays(epochMillis), open, low, high, close, volume, 0, epochMillis.length);
+    }
+
+    private ArrayPriceSeries(long[] epochMillis, int[] epochDays, double[] open, double[] low, double[] high, double[] close, double[] volume,
+                             int offset, int size) {
+        this.epochMillis = epochMillis;
+        this.epochDays = epochDays;
+        this.open = open;
+        this.low = low;
+        this.high = high;
+        this.close = close;
+        this.volume = volume;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    public static ArrayPriceSeries of(List<StockPrice> history) {
+        int n = history.size();
+        long[] epochMillis = new long[n];
+        double[] open = new double[n];
+        double[] low = new double[n];
+        double[] high = new double[n];
+        double[] close = new double[n];
+        double[] volume = new double[n];
+
+        int i = 0;
+        for(StockPrice sp : history) {
+            epochMillis[i] = sp.getDate().getMillis();
+            open[i] = sp.getOpen();
+            low[i] = sp.getLow();
+            high[i] = sp.getHigh();
+            close[i] = sp.getClose();
+            volume[i] = sp.getVolume();
+            i++;
+        }
+
+        return new ArrayPriceSeries(epochMillis, open, low, high, close, volume);
+    }
+
+    private static int[] toEpochDays(long[] epochMillis) {
+        int[] epochDays = new int[epochMillis.length];
+        for(int i = 0; i < epochMillis.length; i++) {
+            epochDays[i] = DateTimeUtils.toEpochDay(epochMillis[i]);
+        }
+        return epochDays;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long epochMillisAt(int i) {
+        return epochMillis[offset + i];
+    }
+
+    @Override
+    public int epochDayAt(int i) {
+        return epochDays[offset + i];
+    }
+
+    @Override
+    public DateTime dateAt(int i) {
+        return new DateTime(epochMillis[offset + i], DateTimeUtils.getTimeZone());
+    }
+
+    @Override
+    public double openAt(int i) {
+        return open[offset + i];
+    }
+
+    @Override
+    public double lowAt(int i) {
+        return low[offset + i];
+    }
+
+    @Override
+    public double highAt(int i) {
+        return high[offset + i];
+    }
+
+    @Override
+    public double closeAt(int i) {
+        return close[offset + i];
+    }
+
+    @Override
+    public double volumeAt(int i) {
+        return volume[offset + i];
+    }
+
+    @Override
+    public PriceSeries subSeries(int from, int to) {
+        if(from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d", from, to, size));
+        }
+        return new ArrayPriceSeries(epochMillis, epochDays, open, low, high, close, volume, offset + from, to - from);
+    }
+}
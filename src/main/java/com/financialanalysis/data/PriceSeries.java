@@ -0,0 +1,85 @@
+package com.financialanalysis.data;
+
+import com.financialanalysis.common.DateTimeUtils;
+import org.joda.time.DateTime;
+
+import java.util.List;
+
+/**
+ * Read only, index addressed view of a stock's daily prices in chronological order.
+ *
+ * Unlike a List of StockPrice, implementations hand out primitives so reading a price
+ * does not allocate.
+ */
+public interface PriceSeries {
+    int size();
+
+    /**
+     * Trading day as days since 1970-01-01, see {@link DateTimeUtils#toEpochDay(DateTime)}
+     */
+    int epochDayAt(int i);
+
+    double openAt(int i);
+
+    double lowAt(int i);
+
+    double highAt(int i);
+
+    double closeAt(int i);
+
+    double volumeAt(int i);
+
+    /**
+     * View of the days in [from, to), nothing is copied
+     */
+    PriceSeries subSeries(int from, int to);
+
+    /**
+     * View of the first length days, nothing is copied
+     */
+    default PriceSeries prefix(int length) {
+        return subSeries(0, length);
+    }
+
+    /**
+     * Index of the first day on or after epochDay, size() if there is none. The days are in
+     * chronological order, so this is a binary search.
+     */
+    default int indexOfDay(int epochDay) {
+        int lo = 0;
+        int hi = size();
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(epochDayAt(mid) < epochDay) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * View of the days from startDay to endDay inclusive, nothing is copied
+     */
+    default PriceSeries range(int startDay, int endDay) {
+        int from = indexOfDay(startDay);
+        int to = Math.max(from, indexOfDay(endDay + 1));
+        return subSeries(from, to);
+    }
+
+    default DateTime dateAt(int i) {
+        return DateTimeUtils.fromEpochDay(epochDayAt(i));
+    }
+
+    default StockPrice priceAt(int i) {
+        return new StockPrice(dateAt(i), openAt(i), lowAt(i), highAt(i), closeAt(i), volumeAt(i));
+    }
+
+    /**
+     * Read only list over the series, each StockPrice is created when it is read
+     */
+    default List<StockPrice> asList() {
+        return new PriceSeriesList(this);
+    }
+}
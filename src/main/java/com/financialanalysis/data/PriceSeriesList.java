@@ -0,0 +1,28 @@
+package com.financialanalysis.data;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read only List view over a PriceSeries. A StockPrice is only created when it is asked for.
+ */
+class PriceSeriesList extends AbstractList<StockPrice> implements RandomAccess {
+    private final PriceSeries series;
+
+    PriceSeriesList(PriceSeries series) {
+        this.series = series;
+    }
+
+    @Override
+    public StockPrice get(int index) {
+        if(index < 0 || index >= series.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + series.size());
+        }
+        return series.priceAt(index);
+    }
+
+    @Override
+    public int size() {
+        return series.size();
+    }
+}
@@ -2,7 +2,10 @@ package com.financialanalysis.data;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import org.joda.time.DateTime;
 
@@ -10,10 +13,33 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Data
+@RequiredArgsConstructor
 public class StockFA {
     private final Symbol symbol;
     private final List<StockPrice> history;
 
+    /**
+     * Either the series backing history, or built from history the first time it is asked for
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient PriceSeries priceSeries;
+
+    /**
+     * Stock whose history is a read only view over priceSeries
+     */
+    public StockFA(Symbol symbol, PriceSeries priceSeries) {
+        this(symbol, priceSeries.asList());
+        this.priceSeries = priceSeries;
+    }
+
+    public PriceSeries getPriceSeries() {
+        if(priceSeries == null) {
+            priceSeries = ArrayPriceSeries.of(history);
+        }
+        return priceSeries;
+    }
+
     public String getJson() {
         Gson gson = new GsonBuilder().registerTypeAdapter(StockPrice.class, new StockPriceSerializer()).create();
         return gson.toJson(this);
@@ -1,12 +1,28 @@
 package com.financialanalysis.guice;
 
+import com.financialanalysis.analysis.DefaultIndicatorProvider;
+import com.financialanalysis.analysis.IndicatorProvider;
+import com.financialanalysis.analysis.TaLibIndicatorProvider;
 import com.financialanalysis.questrade.Questrade;
 import com.financialanalysis.questrade.QuestradeImpl;
 import com.google.inject.AbstractModule;
 
+import static com.financialanalysis.workflow.Main.indicators;
+
 public class FAModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(Questrade.class).to(QuestradeImpl.class);
+
+        switch(indicators) {
+            case "default":
+                bind(IndicatorProvider.class).to(DefaultIndicatorProvider.class);
+                break;
+            case "talib":
+                bind(IndicatorProvider.class).to(TaLibIndicatorProvider.class);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown indicator provider: " + indicators);
+        }
     }
 }
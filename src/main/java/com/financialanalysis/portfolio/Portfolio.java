@@ -0,0 +1,122 @@
+package com.financialanalysis.portfolio;
+
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.Action;
+import com.financialanalysis.data.Symbol;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * One pool of cash shared by every stock. Each new position is sized as a fraction of the total
+ * balance, at most maxPositions are open at once and every buy and sell pays the commission.
+ * Open positions are valued at the last price they traded or were marked at.
+ */
+@Data
+public class Portfolio {
+    private final double initialBalance;
+    private final int maxPositions;
+    private final double positionSize;
+    private final double commission;
+
+    private double cashBalance;
+    private final Map<Symbol, Position> positions = new HashMap<>();
+    private final List<Action> activity = new ArrayList<>();
+    private int numBuys;
+    private int numSells;
+    private int numWins;
+    private int maxOpenPositions;
+    // Entries that were signaled but had no free slot or not enough cash
+    private int numSkipped;
+
+    public Portfolio(double initialBalance, int maxPositions, double positionSize, double commission) {
+        this.initialBalance = initialBalance;
+        this.maxPositions = maxPositions;
+        this.positionSize = positionSize;
+        this.commission = commission;
+        this.cashBalance = initialBalance;
+    }
+
+    public boolean holds(Symbol symbol) {
+        return positions.containsKey(symbol);
+    }
+
+    /**
+     * Buys positionSize of the total balance worth of symbol, or as much as the cash allows.
+     * Returns empty and counts a skipped entry if there is no free slot or no cash.
+     */
+    public Optional<Position> buy(Symbol symbol, double askPrice, int day, double weight, int exitDay, double exitPrice) {
+        double amount = Math.min(getTotalBalance() * positionSize, cashBalance - commission);
+        if(positions.size() >= maxPositions || amount <= 0 || askPrice <= 0) {
+            numSkipped++;
+            return Optional.empty();
+        }
+
+        double shares = amount / askPrice;
+        cashBalance -= amount + commission;
+        Position position = new Position(symbol, shares, askPrice, exitDay, exitPrice);
+        position.setPrice(askPrice);
+        positions.put(symbol, position);
+        activity.add(new Action("buy", amount, shares, askPrice, DateTimeUtils.fromEpochDay(day), symbol, weight));
+        numBuys++;
+        maxOpenPositions = Math.max(maxOpenPositions, positions.size());
+        return Optional.of(position);
+    }
+
+    public void sell(Symbol symbol, double bidPrice, int day) {
+        Position position = positions.remove(symbol);
+        if(position == null) {
+            return;
+        }
+
+        double amount = position.getShares() * bidPrice;
+        cashBalance += amount - commission;
+        activity.add(new Action("sell", amount, position.getShares(), bidPrice, DateTimeUtils.fromEpochDay(day), symbol, 0));
+        numSells++;
+        if(bidPrice > position.getEntryPrice()) {
+            numWins++;
+        }
+    }
+
+    /**
+     * Values an open position at price without selling it
+     */
+    public void mark(Symbol symbol, double price) {
+        Position position = positions.get(symbol);
+        if(position != null) {
+            position.setPrice(price);
+        }
+    }
+
+    public double getTotalBalance() {
+        double total = cashBalance;
+        for(Position position : positions.values()) {
+            total += position.getShares() * position.getPrice();
+        }
+        return total;
+    }
+
+    public double getPercentageGainLoss() {
+        return ((getTotalBalance() / initialBalance) - 1) * 100;
+    }
+
+    public String getSummary() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("\n----------------------------\n");
+        builder.append(String.format("Initial Balance     : %12.2f\n", initialBalance));
+        builder.append(String.format("Cash Balance        : %12.2f\n", cashBalance));
+        builder.append(String.format("Total Balance       : %12.2f\n", getTotalBalance()));
+        builder.append(String.format("Percentage Gain/Loss: %12.2f%%\n", getPercentageGainLoss()));
+        builder.append(String.format("Number Buys         : %12d\n", numBuys));
+        builder.append(String.format("Number Sells        : %12d\n", numSells));
+        builder.append(String.format("Winning Sells       : %12d\n", numWins));
+        builder.append(String.format("Still Open          : %12d\n", positions.size()));
+        builder.append(String.format("Max Open Positions  : %12d\n", maxOpenPositions));
+        builder.append(String.format("Skipped Entries     : %12d\n", numSkipped));
+        return builder.toString();
+    }
+}
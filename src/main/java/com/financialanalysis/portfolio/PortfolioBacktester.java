@@ -0,0 +1,164 @@
+package com.financialanalysis.portfolio;
+
+import com.financialanalysis.strategyV2.SignalSeries;
+import com.financialanalysis.workflow.StrategyRunner;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.extern.log4j.Log4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+
+import static com.financialanalysis.workflow.Main.*;
+
+/**
+ * Back tests the strategy on all stocks at once, trading one Portfolio instead of an account per stock.
+ *
+ * The strategy runner finds the signals of each stock in one pass over the stored prices, keeping only
+ * the entries and their exits, so memory grows with the number of signals and not with the history.
+ * The backtest then merges the entries of every stock into one chronological stream with a priority
+ * queue holding one cursor per stock. On each day, the positions that exit are sold first, then the
+ * day's entries are bought by descending weight while the portfolio has room.
+ */
+@Log4j
+@Singleton
+public class PortfolioBacktester {
+    private final StrategyRunner strategyRunner;
+
+    @Inject
+    public PortfolioBacktester(StrategyRunner strategyRunner) {
+        this.strategyRunner = strategyRunner;
+    }
+
+    public Portfolio run() {
+        List<SignalSeries> signals = strategyRunner.runSignals();
+        log.info("Back testing portfolio on " + signals.size() + " stocks with signals");
+
+        Portfolio portfolio = new Portfolio(portfolioCapital, portfolioMaxPositions, portfolioPositionSize, portfolioCommission);
+        backtest(signals, portfolio);
+
+        log.info(portfolio.getSummary());
+        return portfolio;
+    }
+
+    public static void backtest(List<SignalSeries> signals, Portfolio portfolio) {
+        PriorityQueue<Cursor> entries = new PriorityQueue<>(Cursor.CHRONOLOGICAL);
+        for(SignalSeries series : signals) {
+            if(!series.isEmpty()) {
+                entries.add(new Cursor(series));
+            }
+        }
+        PriorityQueue<Position> exits = new PriorityQueue<>(Comparator.comparingInt(Position::getExitDay));
+
+        List<Cursor> today = new ArrayList<>();
+        while(!entries.isEmpty()) {
+            int day = entries.peek().day();
+
+            // Exits first, so their cash can go to today's entries
+            while(!exits.isEmpty() && exits.peek().getExitDay() <= day) {
+                Position position = exits.poll();
+                portfolio.sell(position.getSymbol(), position.getExitPrice(), position.getExitDay());
+            }
+
+            today.clear();
+            while(!entries.isEmpty() && entries.peek().day() == day) {
+                today.add(entries.poll());
+            }
+            today.sort(Cursor.BY_WEIGHT);
+
+            for(Cursor cursor : today) {
+                Optional<Position> position = portfolio.buy(
+                        cursor.series.getSymbol(),
+                        cursor.price(),
+                        day,
+                        cursor.weight(),
+                        cursor.exitDay(),
+                        cursor.exitPrice()
+                );
+
+                if(position.isPresent()) {
+                    exits.add(position.get());
+                    // Entries before the exit would be ignored while the stock is held, like in Strategy.run
+                    cursor.skipTo(position.get().getExitDay());
+                } else {
+                    cursor.skipTo(day);
+                }
+
+                if(!cursor.isDone()) {
+                    entries.add(cursor);
+                }
+            }
+        }
+
+        // What is left exits after the last entry, or never and is valued at the last close
+        while(!exits.isEmpty()) {
+            Position position = exits.poll();
+            if(position.getExitDay() != SignalSeries.NO_EXIT) {
+                portfolio.sell(position.getSymbol(), position.getExitPrice(), position.getExitDay());
+            }
+        }
+        for(SignalSeries series : signals) {
+            portfolio.mark(series.getSymbol(), series.getLastClose());
+        }
+    }
+
+    /**
+     * Position in the entries of one stock
+     */
+    private static class Cursor {
+        static final Comparator<Cursor> CHRONOLOGICAL = Comparator
+                .comparingInt(Cursor::day)
+                .thenComparing(c -> c.series.getSymbol().getSymbol());
+        static final Comparator<Cursor> BY_WEIGHT = Comparator
+                .comparingDouble(Cursor::weight).reversed()
+                .thenComparing(c -> c.series.getSymbol().getSymbol());
+
+        private final SignalSeries series;
+        private int k;
+
+        Cursor(SignalSeries series) {
+            this.series = series;
+        }
+
+        int day() {
+            return series.getEntryDays()[k];
+        }
+
+        double price() {
+            return series.getEntryPrices()[k];
+        }
+
+        double weight() {
+            return series.getEntryWeights()[k];
+        }
+
+        int exitDay() {
+            return series.getExitDays()[k];
+        }
+
+        double exitPrice() {
+            return series.getExitPrices()[k];
+        }
+
+        /**
+         * Moves to the first entry after day
+         */
+        void skipTo(int day) {
+            if(day == SignalSeries.NO_EXIT) {
+                k = series.size();
+                return;
+            }
+            // Entry days are unique within a stock
+            int found = Arrays.binarySearch(series.getEntryDays(), k, series.size(), day + 1);
+            k = found >= 0 ? found : -found - 1;
+        }
+
+        boolean isDone() {
+            return k >= series.size();
+        }
+    }
+}
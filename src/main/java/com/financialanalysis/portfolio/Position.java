@@ -0,0 +1,16 @@
+package com.financialanalysis.portfolio;
+
+import com.financialanalysis.data.Symbol;
+import lombok.Data;
+
+@Data
+public class Position {
+    private final Symbol symbol;
+    private final double shares;
+    private final double entryPrice;
+    private final int exitDay;
+    private final double exitPrice;
+
+    // Last price the position was valued at
+    private double price;
+}
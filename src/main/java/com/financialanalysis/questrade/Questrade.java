@@ -7,6 +7,7 @@ import com.financialanalysis.questrade.response.SymbolsSearchResponse;
 import org.joda.time.DateTime;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface Questrade {
     void authenticate();
@@ -19,4 +20,22 @@ public interface Questrade {
                                            DateTime start,
                                            DateTime end,
                                            HistoricDataGranularity interval) throws Exception;
+
+    /**
+     * Same as {@link #getMarketCandles}, but returns straight away and completes once the candles arrive
+     */
+    CompletableFuture<MarketCandlesResponse> getMarketCandlesAsync(Symbol symbol,
+                                                                   DateTime start,
+                                                                   DateTime end,
+                                                                   HistoricDataGranularity interval);
+
+    /**
+     * Same as {@link #getMarketCandlesAsync}, and runs onDispatch when the request is let through the
+     * rate and concurrency limits, so callers can time the request rather than its wait in the queue
+     */
+    CompletableFuture<MarketCandlesResponse> getMarketCandlesAsync(Symbol symbol,
+                                                                   DateTime start,
+                                                                   DateTime end,
+                                                                   HistoricDataGranularity interval,
+                                                                   Runnable onDispatch);
 }
@@ -1,5 +1,7 @@
 package com.financialanalysis.questrade;
 
+import com.financialanalysis.common.EasyRetryer;
+import com.financialanalysis.common.ProviderLimiter;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.questrade.response.MarketCandlesResponse;
 import com.financialanalysis.questrade.response.SymbolsIdResponse;
@@ -9,29 +11,59 @@ import com.google.inject.Singleton;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpResponseException;
-import org.apache.http.client.fluent.Request;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.financialanalysis.workflow.Main.*;
+
+/**
+ * All calls go through one pooled client, so connections to the api server are kept alive and
+ * reused by every thread. Each kind of call is capped by its own flag:
+ *
+ * - Candles and searches run on the request pool of --questradeConcurrency threads
+ * - Symbol id batches run on the caller's thread, SymbolPuller runs --symbolConcurrency of them
+ *
+ * The connection pool holds enough connections for both, so neither waits on the other.
+ *
+ * Requests are retried with an {@link EasyRetryer}, so one that is backing off doesn't hold up
+ * the thread that asked for it. Every attempt waits for the --questradeRate and --questradeConcurrency
+ * limits on its own, so a request that is backing off holds no permit and its retries are rate limited.
+ */
 @Log4j
 @Singleton
 public class QuestradeImpl implements Questrade {
@@ -39,9 +71,25 @@ public class QuestradeImpl implements Questrade {
     private static int CONNECTION_TIMEOUT_MS = 2000;
     private static int SOCKET_TIMEOUT_MS = 2000;
     private static int MAX_TRIES = 3;
-
-    private AuthenticationTokens authTokens;
-    private Header authenticationHeader;
+    private static long BASE_DELAY_MS = 5000;
+    private static long MAX_DELAY_MS = 30000;
+    // Failures in a row before requests to the api server are failed straight away, and for how long
+    private static int BREAKER_FAILURES = 10;
+    private static long BREAKER_OPEN_MS = 60000;
+
+    private final CloseableHttpClient client;
+    // Runs the attempts made through the retryer, one thread per request allowed in flight
+    private final ExecutorService requestPool;
+    // Shared by every caller, so the limits hold for the whole process
+    private final ProviderLimiter limiter = new ProviderLimiter("Questrade", questradeRate, questradeConcurrency);
+    // Runs each attempt on the request pool once the limiter allows it
+    private final Executor attemptExecutor;
+    private final EasyRetryer retryer = new EasyRetryer("Questrade", MAX_TRIES, BASE_DELAY_MS, MAX_DELAY_MS, BREAKER_FAILURES, BREAKER_OPEN_MS);
+    // Gson is thread safe, so one instance parses every response
+    private final Gson gson = new Gson();
+
+    private volatile AuthenticationTokens authTokens;
+    private volatile Header authenticationHeader;
 
     static {
         createAuthStore();
@@ -60,13 +108,35 @@ public class QuestradeImpl implements Questrade {
         return "var/auth/";
     }
 
+    public QuestradeImpl() {
+        int maxConnections = questradeConcurrency + symbolConcurrency;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(CONNECTION_TIMEOUT_MS)
+                        .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                        .build())
+                .build();
+
+        this.requestPool = Executors.newFixedThreadPool(questradeConcurrency, r -> {
+            Thread thread = new Thread(r, "Questrade");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.attemptExecutor = limiter.executor(requestPool);
+    }
+
     /**
      * Must authenticate before making any calls
      */
     @Override
     @SneakyThrows
     public void authenticate() {
-        Gson gson = new Gson();
         File credFile = new File(getAuthStoreDir() + "cred");
         File tokenFile = new File(getAuthStoreDir() + "token");
         String refreshToken;
@@ -94,15 +164,14 @@ public class QuestradeImpl implements Questrade {
         String urlParamsEncoded = encodeURLParams(params);
         String fullUrl = AUTH_URL + "?" + urlParamsEncoded;
 
-        Request request = Request.Get(fullUrl);
-        request.connectTimeout(CONNECTION_TIMEOUT_MS);
-        request.socketTimeout(SOCKET_TIMEOUT_MS);
-        HttpResponse response = request.execute().returnResponse();
-        String json = IOUtils.toString(response.getEntity().getContent(), "UTF-8");
+        String json;
+        try(CloseableHttpResponse response = client.execute(new HttpGet(fullUrl))) {
+            json = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
 
-        if(response.getStatusLine().getStatusCode() != 200){
-            log.error("Authentication failed " + response.toString());
-            throw new Exception("Authentication failed " + response.toString());
+            if(response.getStatusLine().getStatusCode() != 200){
+                log.error("Authentication failed " + response.toString());
+                throw new Exception("Authentication failed " + response.toString());
+            }
         }
 
         authTokens = gson.fromJson(json, AuthenticationTokens.class);
@@ -122,27 +191,20 @@ public class QuestradeImpl implements Questrade {
         Map<String, Object> params = new LinkedHashMap<>();
         params.put("prefix", prefix);
 
-        String json = doGet(api, params, Arrays.asList(authenticationHeader));
-
-        SymbolsSearchResponse response = new Gson().fromJson(json, SymbolsSearchResponse.class);
-        return response;
+        return doGet(api, params, SymbolsSearchResponse.class);
     }
 
     /**
-     * Get the symbol information for a symbol with id in ids
+     * Get the symbol information for a symbol with id in ids. Tried only once, as SymbolPuller backs
+     * off and retries batches itself.
      */
     @Override
     public SymbolsIdResponse getSymbolsId(List<String> ids) throws IOException {
         String api = "v1/symbols";
         Map<String, Object> params = new LinkedHashMap<>();
         params.put("ids", ids);
-        Map<String, String> headers = new LinkedHashMap<>();
-        headers.put("Authorization", authTokens.getToken_type() + " " + authTokens.getAccess_token());
-
-        String json = doGet(api, params, Arrays.asList(authenticationHeader));
-        SymbolsIdResponse response = new Gson().fromJson(json, SymbolsIdResponse.class);
 
-        return response;
+        return doGetOnce(api, params, SymbolsIdResponse.class);
     }
 
     /**
@@ -153,6 +215,31 @@ public class QuestradeImpl implements Questrade {
                                                   DateTime start,
                                                   DateTime end,
                                                   HistoricDataGranularity interval) throws IOException {
+        try {
+            return getMarketCandlesAsync(symbol, start, end, interval).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Gets candles for a symbol without blocking, the future fails with the same exceptions as
+     * {@link #getMarketCandles}
+     */
+    @Override
+    public CompletableFuture<MarketCandlesResponse> getMarketCandlesAsync(Symbol symbol,
+                                                                          DateTime start,
+                                                                          DateTime end,
+                                                                          HistoricDataGranularity interval) {
+        return getMarketCandlesAsync(symbol, start, end, interval, () -> {});
+    }
+
+    @Override
+    public CompletableFuture<MarketCandlesResponse> getMarketCandlesAsync(Symbol symbol,
+                                                                          DateTime start,
+                                                                          DateTime end,
+                                                                          HistoricDataGranularity interval,
+                                                                          Runnable onDispatch) {
         DateTimeFormatter fmt = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZZ");
 
         String api = "v1/markets/candles/" + symbol.getSymbolId();
@@ -161,77 +248,132 @@ public class QuestradeImpl implements Questrade {
         params.put("endTime", fmt.print(end));
         params.put("interval", interval.toString());
 
-        String json = doGet(api, params, Arrays.asList(authenticationHeader));
-        MarketCandlesResponse response = new Gson().fromJson(json, MarketCandlesResponse.class);
+        CompletableFuture<MarketCandlesResponse> result = new CompletableFuture<>();
+        doGetAsync(api, params, MarketCandlesResponse.class, onDispatch).whenComplete((response, e) -> {
+            if(e != null) {
+                result.completeExceptionally(unwrap(e));
+            } else {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
 
-        return response;
+    private <T> T doGet(String apiUrl, Map<String, Object> urlParams, Class<T> type) throws IOException {
+        try {
+            return doGetAsync(apiUrl, urlParams, type, () -> {}).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
     }
 
-    private String doGet(String apiUrl, Map<String, Object> urlParams, List<Header> headers) throws IOException {
-        String urlParamsEncoded = encodeURLParams(urlParams);
-        String fullUrl = authTokens.getApi_server() + apiUrl + "?" + urlParamsEncoded;
+    /**
+     * One attempt on the calling thread, without the retryer or its circuit breaker
+     */
+    private <T> T doGetOnce(String apiUrl, Map<String, Object> urlParams, Class<T> type) throws IOException {
+        try {
+            return performGet(createRequest(apiUrl, urlParams), type);
+        } catch (EasyRetryer.RetryException e) {
+            throw unwrap(e);
+        }
+    }
 
-        Request request = Request.Get(fullUrl);
-        request.connectTimeout(CONNECTION_TIMEOUT_MS);
-        request.socketTimeout(SOCKET_TIMEOUT_MS);
-        headers.forEach(i -> request.addHeader(i));
+    /**
+     * Gets from the api server with the authentication header on the request pool. Server errors and
+     * throttling are retried by the retryer, which doesn't hold a thread or a permit while it backs off.
+     * onDispatch is run when the first attempt is let through the limits.
+     */
+    private <T> CompletableFuture<T> doGetAsync(String apiUrl, Map<String, Object> urlParams, Class<T> type, Runnable onDispatch) {
+        HttpGet request = createRequest(apiUrl, urlParams);
+        AtomicBoolean dispatched = new AtomicBoolean();
+        return retryer.call(request.getURI().getHost(), () -> {
+            if(dispatched.compareAndSet(false, true)) {
+                onDispatch.run();
+            }
+            return performGet(request, type);
+        }, attemptExecutor);
+    }
 
-        HttpResponse response = performGetWithRetry(request);
+    private HttpGet createRequest(String apiUrl, Map<String, Object> urlParams) {
+        String urlParamsEncoded = encodeURLParams(urlParams);
+        String fullUrl = authTokens.getApi_server() + apiUrl + "?" + urlParamsEncoded;
 
-        String json = IOUtils.toString(response.getEntity().getContent(), "UTF-8");
-        return json;
+        HttpGet request = new HttpGet(fullUrl);
+        request.addHeader(authenticationHeader);
+        return request;
     }
 
-    private HttpResponse performGetWithRetry(Request request) throws IOException {
-        /**
-         * Retry policy:
-         * - Max tries = 3
-         * - Retry only if 500 error is thrown
-         * - If max tries is exceeded, propigate the exception upwards
-         * - Exponential backoff
-         *   5, 25
-         */
-
-        HttpResponse response = null;
-        for(int attempt = 1; attempt <= MAX_TRIES; attempt++) {
-            response = request.execute().returnResponse();
-            int statusCode = response.getStatusLine().getStatusCode();
-            String info = String.format("%d %s", statusCode, response.getStatusLine().getReasonPhrase());
+    /**
+     * One attempt, which parses the body straight off the stream rather than reading it into a String first.
+     *
+     * Retry policy:
+     * - Retry only server errors and 429 Too Many Requests, waiting as long as Retry-After says if it is sent
+     * - Anything else that isn't a success is thrown as is
+     */
+    private <T> T performGet(HttpGet request, Class<T> type) throws IOException {
+        try(CloseableHttpResponse response = client.execute(request)) {
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            String info = String.format("%d %s", statusCode, statusLine.getReasonPhrase());
             log.info(info);
 
-            if(100 <= statusCode && statusCode < 200) {
-                break; // Informational, don't retry
-            }
-
             if(200 <= statusCode && statusCode < 300) {
-                return response; // If status return is 200 -> just return
+                try(Reader reader = new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8)) {
+                    return gson.fromJson(reader, type);
+                }
             }
 
-            if(300 <= statusCode && statusCode < 400) {
-                break; // Redirection, don't retry
+            // Read what is left of the body so the connection goes back to the pool
+            EntityUtils.consumeQuietly(response.getEntity());
+
+            HttpResponseException error = new HttpResponseException(statusCode, statusLine.getReasonPhrase());
+            if(statusCode == 429 || 500 <= statusCode && statusCode < 600) {
+                EasyRetryer.RetryException retry = new EasyRetryer.RetryException(info, getRetryAfterMillis(response));
+                retry.initCause(error);
+                throw retry;
             }
 
             if(400 <= statusCode && statusCode < 500) {
                 log.error(response.toString());
-                break; // Client error, don't retry
             }
+            throw error;
+        }
+    }
 
-            if(500 <= statusCode && statusCode < 600) {
-                // Server error, RETRY
-            }
+    /**
+     * Retry-After is either a number of seconds or a date, -1 if there is none
+     */
+    private static long getRetryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if(header == null) {
+            return -1;
+        }
 
-            if(attempt < MAX_TRIES) {
-                int secs = (int) Math.pow(5, attempt);
-                log.info("Sleeping for " + secs + " seconds.");
-                try {Thread.sleep((long) (secs * 1000));} catch (InterruptedException e) {}
-            }
+        String value = header.getValue().trim();
+        if(value.matches("\\d+")) {
+            return Long.parseLong(value) * 1000;
         }
 
-        if(response != null) {
-            StatusLine statusLine = response.getStatusLine();
-            throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+        Date date = DateUtils.parseDate(value);
+        return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+
+    /**
+     * The exception a call failed with, and the http error behind a retry that never succeeded, so
+     * callers see the status code as they did before retries were scheduled
+     */
+    private static IOException unwrap(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if(cause instanceof EasyRetryer.RetryException && cause.getCause() instanceof HttpResponseException) {
+            return (HttpResponseException) cause.getCause();
+        }
+        if(cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if(cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
         }
-        throw new IOException("Request failed to execute.");
+        return new IOException(cause);
     }
 
     @SneakyThrows
@@ -0,0 +1,275 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.StockPrice;
+import com.financialanalysis.data.Symbol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Columnar binary layout of a single stock's history, big endian:
+ *
+ *   header   int magic, int version, int count, int capacity
+ *   columns  int[capacity] epochDay, then double[capacity] for each of open, low, high, close, volume
+ *
+ * Each column is allocated for capacity rows, the first count of which are valid. Days are
+ * in chronological order. The spare rows let new days be appended in place: they are written
+ * first and only become visible once count is updated in the header.
+ */
+public class BinaryStockFormat {
+    public static final int MAGIC = 0x46414253; // "FABS"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    public static final int COUNT_OFFSET = 8;
+    public static final int CAPACITY_OFFSET = 12;
+
+    public static final int OPEN = 0;
+    public static final int LOW = 1;
+    public static final int HIGH = 2;
+    public static final int CLOSE = 3;
+    public static final int VOLUME = 4;
+
+    private static final int NUM_PRICE_COLUMNS = 5;
+
+    // Spare rows left at the end of each column, roughly three months of trading days
+    static final int SPARE_ROWS = 64;
+
+    public static long fileSize(int capacity) {
+        return HEADER_SIZE + (long) capacity * (Integer.BYTES + NUM_PRICE_COLUMNS * Double.BYTES);
+    }
+
+    public static long epochDayOffset(int row) {
+        return HEADER_SIZE + (long) row * Integer.BYTES;
+    }
+
+    /**
+     * Byte offset of row within one of the OPEN, LOW, HIGH, CLOSE or VOLUME columns
+     */
+    public static long priceOffset(int column, int row, int capacity) {
+        return HEADER_SIZE + (long) capacity * Integer.BYTES + ((long) column * capacity + row) * Double.BYTES;
+    }
+
+    public static byte[] encode(List<StockPrice> history) {
+        return encode(history, history.size() + SPARE_ROWS);
+    }
+
+    public static byte[] encode(List<StockPrice> history, int capacity) {
+        int count = history.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileSize(capacity));
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        buffer.putInt(capacity);
+
+        int row = 0;
+        for(StockPrice sp : history) {
+            buffer.putInt((int) epochDayOffset(row), DateTimeUtils.toEpochDay(sp.getDate()));
+            buffer.putDouble((int) priceOffset(OPEN, row, capacity), sp.getOpen());
+            buffer.putDouble((int) priceOffset(LOW, row, capacity), sp.getLow());
+            buffer.putDouble((int) priceOffset(HIGH, row, capacity), sp.getHigh());
+            buffer.putDouble((int) priceOffset(CLOSE, row, capacity), sp.getClose());
+            buffer.putDouble((int) priceOffset(VOLUME, row, capacity), sp.getVolume());
+            row++;
+        }
+
+        return buffer.array();
+    }
+
+    public static List<StockPrice> decode(ByteBuffer buffer) throws IOException {
+        int count = readHeader(buffer);
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+
+        List<StockPrice> history = new ArrayList<>(count);
+        for(int row = 0; row < count; row++) {
+            history.add(new StockPrice(
+                    DateTimeUtils.fromEpochDay(buffer.getInt((int) epochDayOffset(row))),
+                    buffer.getDouble((int) priceOffset(OPEN, row, capacity)),
+                    buffer.getDouble((int) priceOffset(LOW, row, capacity)),
+                    buffer.getDouble((int) priceOffset(HIGH, row, capacity)),
+                    buffer.getDouble((int) priceOffset(CLOSE, row, capacity)),
+                    buffer.getDouble((int) priceOffset(VOLUME, row, capacity))
+            ));
+        }
+        return history;
+    }
+
+    /**
+     * Validates the header and returns the number of valid rows
+     */
+    public static int readHeader(ByteBuffer buffer) throws IOException {
+        return readHeader(buffer, buffer.limit());
+    }
+
+    /**
+     * Same as {@link #readHeader(ByteBuffer)} when only the header is in buffer, fileSize is that of the whole file
+     */
+    private static int readHeader(ByteBuffer header, long fileSize) throws IOException {
+        if(header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary stock file");
+        }
+
+        int version = header.getInt(4);
+        if(version != VERSION) {
+            throw new IOException("Unsupported binary stock file version " + version);
+        }
+
+        int count = header.getInt(COUNT_OFFSET);
+        int capacity = header.getInt(CAPACITY_OFFSET);
+        if(count < 0 || count > capacity || fileSize < fileSize(capacity)) {
+            throw new IOException("Truncated binary stock file");
+        }
+        return count;
+    }
+
+    public static StockFA read(Path path, Symbol symbol) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        return new StockFA(symbol, decode(buffer));
+    }
+
+    /**
+     * Writes to a temporary file first so a crash never leaves a half written history behind. The
+     * file is forced to disk before it replaces the old one, and the directory after, so once this
+     * returns the new history survives a crash.
+     */
+    public static void write(Path path, StockFA stock) throws IOException {
+        write(path, stock.getHistory());
+    }
+
+    private static void write(Path path, List<StockPrice> history) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap(encode(history)), 0);
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces the directory entries to disk, so a rename into dir survives a crash
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        try(FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows can't open a directory, its renames are durable once they return
+        }
+    }
+
+    /**
+     * Adds prices after the last stored day, without touching the rows already stored.
+     *
+     * The new rows go into the spare rows and are forced to disk before count is bumped in the
+     * header, so a crash leaves either the old history or the new one. If there isn't enough room
+     * the file is rewritten with fresh spare rows the same way {@link #write(Path, StockFA)} does.
+     * Throws IllegalArgumentException, and writes nothing, if prices aren't all after the last stored day.
+     */
+    public static void append(Path path, List<StockPrice> prices) throws IOException {
+        if(prices.isEmpty()) return;
+
+        List<StockPrice> history;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            int count = readHeader(header, channel.size());
+            int capacity = header.getInt(CAPACITY_OFFSET);
+
+            int lastDay = Integer.MIN_VALUE;
+            if(count > 0) {
+                ByteBuffer day = ByteBuffer.allocate(Integer.BYTES);
+                readFully(channel, day, epochDayOffset(count - 1));
+                lastDay = day.getInt(0);
+            }
+            int[] days = validateOrder(prices, lastDay);
+
+            if(count + prices.size() > capacity) {
+                history = decode(readAll(channel));
+            } else {
+                appendInPlace(channel, prices, days, count, capacity);
+                return;
+            }
+        }
+
+        // Out of spare rows, the channel is closed before the file is replaced
+        history.addAll(prices);
+        write(path, history);
+    }
+
+    private static void appendInPlace(FileChannel channel, List<StockPrice> prices, int[] days, int count, int capacity) throws IOException {
+        // Write ahead into the spare rows, they are ignored by readers until count changes
+        for(int i = 0; i < prices.size(); i++) {
+            StockPrice sp = prices.get(i);
+            int row = count + i;
+            writeInt(channel, epochDayOffset(row), days[i]);
+            writeDouble(channel, priceOffset(OPEN, row, capacity), sp.getOpen());
+            writeDouble(channel, priceOffset(LOW, row, capacity), sp.getLow());
+            writeDouble(channel, priceOffset(HIGH, row, capacity), sp.getHigh());
+            writeDouble(channel, priceOffset(CLOSE, row, capacity), sp.getClose());
+            writeDouble(channel, priceOffset(VOLUME, row, capacity), sp.getVolume());
+        }
+        channel.force(false);
+
+        // Commit
+        writeInt(channel, COUNT_OFFSET, count + prices.size());
+        channel.force(false);
+    }
+
+    /**
+     * Epoch day of each price, checking that they strictly increase starting after lastDay
+     */
+    static int[] validateOrder(List<StockPrice> prices, int lastDay) {
+        int[] days = new int[prices.size()];
+        int previous = lastDay;
+        for(int i = 0; i < days.length; i++) {
+            days[i] = DateTimeUtils.toEpochDay(prices.get(i).getDate());
+            if(days[i] <= previous) {
+                throw new IllegalArgumentException("Appended price on " + prices.get(i).getDate() + " is not after the last stored day");
+            }
+            previous = days[i];
+        }
+        return days;
+    }
+
+    private static ByteBuffer readAll(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        readFully(channel, buffer, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+    }
+
+    private static void writeInt(FileChannel channel, long position, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        buffer.putInt(0, value);
+        writeFully(channel, buffer, position);
+    }
+
+    private static void writeDouble(FileChannel channel, long position, double value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
+        buffer.putDouble(0, value);
+        writeFully(channel, buffer, position);
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.financialanalysis.store;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Result of checking the whole stock store, saved as json so it can be read by other tools
+ */
+@Data
+public class IntegrityReport {
+    private final String checkedAt;
+    private final int stocksChecked;
+    private final int stocksRepaired;
+    private final long millis;
+    // Only the stocks with issues
+    private final List<StockIntegrity> stocks;
+}
@@ -0,0 +1,180 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.PriceSeries;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.financialanalysis.store.BinaryStockFormat.CAPACITY_OFFSET;
+import static com.financialanalysis.store.BinaryStockFormat.CLOSE;
+import static com.financialanalysis.store.BinaryStockFormat.HEADER_SIZE;
+import static com.financialanalysis.store.BinaryStockFormat.HIGH;
+import static com.financialanalysis.store.BinaryStockFormat.LOW;
+import static com.financialanalysis.store.BinaryStockFormat.MAGIC;
+import static com.financialanalysis.store.BinaryStockFormat.VERSION;
+import static com.financialanalysis.store.BinaryStockFormat.OPEN;
+import static com.financialanalysis.store.BinaryStockFormat.VOLUME;
+import static com.financialanalysis.store.BinaryStockFormat.epochDayOffset;
+import static com.financialanalysis.store.BinaryStockFormat.priceOffset;
+import static com.financialanalysis.store.BinaryStockFormat.writeFully;
+
+/**
+ * PriceSeries reading straight out of a memory mapped {@link BinaryStockFormat} file.
+ *
+ * Only absolute reads are made on the shared buffer, so one series can be read by many
+ * threads, and every process mapping the same file shares the OS page cache.
+ */
+public class MappedPriceSeries implements PriceSeries {
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int offset;
+    private final int size;
+
+    // Byte offset of the first row of each column
+    private final int openBase;
+    private final int lowBase;
+    private final int highBase;
+    private final int closeBase;
+    private final int volumeBase;
+
+    private MappedPriceSeries(ByteBuffer buffer, int capacity, int offset, int size) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.offset = offset;
+        this.size = size;
+
+        this.openBase = (int) priceOffset(OPEN, 0, capacity);
+        this.lowBase = (int) priceOffset(LOW, 0, capacity);
+        this.highBase = (int) priceOffset(HIGH, 0, capacity);
+        this.closeBase = (int) priceOffset(CLOSE, 0, capacity);
+        this.volumeBase = (int) priceOffset(VOLUME, 0, capacity);
+    }
+
+    /**
+     * Maps the rows that are valid at the time of the call
+     */
+    public static MappedPriceSeries map(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return wrap(buffer);
+        }
+    }
+
+    /**
+     * Series over a buffer holding one stock in the binary format, such as a block of the
+     * {@link RecentWindowStore} snapshot. The buffer must start at the stock's header.
+     */
+    static MappedPriceSeries wrap(ByteBuffer buffer) throws IOException {
+        int count = BinaryStockFormat.readHeader(buffer);
+        int capacity = buffer.getInt(CAPACITY_OFFSET);
+        return new MappedPriceSeries(buffer, capacity, 0, count);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int epochDayAt(int i) {
+        return buffer.getInt((int) epochDayOffset(row(i)));
+    }
+
+    @Override
+    public double openAt(int i) {
+        return buffer.getDouble(openBase + row(i) * Double.BYTES);
+    }
+
+    @Override
+    public double lowAt(int i) {
+        return buffer.getDouble(lowBase + row(i) * Double.BYTES);
+    }
+
+    @Override
+    public double highAt(int i) {
+        return buffer.getDouble(highBase + row(i) * Double.BYTES);
+    }
+
+    @Override
+    public double closeAt(int i) {
+        return buffer.getDouble(closeBase + row(i) * Double.BYTES);
+    }
+
+    @Override
+    public double volumeAt(int i) {
+        return buffer.getDouble(volumeBase + row(i) * Double.BYTES);
+    }
+
+    @Override
+    public PriceSeries subSeries(int from, int to) {
+        if(from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d", from, to, size));
+        }
+        return new MappedPriceSeries(buffer, capacity, offset + from, to - from);
+    }
+
+    /**
+     * Unmaps the file now rather than whenever the buffer is garbage collected, so the file can be
+     * replaced even where a mapped file can't be, like on Windows. Neither this series nor any other
+     * over the same mapping may be read afterwards. Where the JVM doesn't allow it the mapping is
+     * left to the garbage collector.
+     */
+    void unmap() {
+        if(!(buffer instanceof MappedByteBuffer)) {
+            return;
+        }
+
+        try {
+            Method getCleaner = buffer.getClass().getMethod("cleaner");
+            getCleaner.setAccessible(true);
+            Object cleaner = getCleaner.invoke(buffer);
+            if(cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not allowed on this JVM, the mapping goes when the buffer is collected
+        }
+    }
+
+    /**
+     * Writes these rows to channel at position in the binary format with no spare rows, copying each
+     * column straight out of the mapping. Takes {@link BinaryStockFormat#fileSize} of size() bytes.
+     */
+    void writeTo(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(size);
+        header.flip();
+        writeFully(channel, header, position);
+        position += HEADER_SIZE;
+
+        writeFully(channel, column(epochDayOffset(offset), Integer.BYTES), position);
+        position += (long) size * Integer.BYTES;
+        for(int column = OPEN; column <= VOLUME; column++) {
+            writeFully(channel, column(priceOffset(column, offset, capacity), Double.BYTES), position);
+            position += (long) size * Double.BYTES;
+        }
+    }
+
+    /**
+     * The size values of a column from start, without copying them
+     */
+    private ByteBuffer column(long start, int bytes) {
+        ByteBuffer column = buffer.duplicate();
+        column.limit((int) start + size * bytes);
+        column.position((int) start);
+        return column.slice();
+    }
+
+    private int row(int i) {
+        if(i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return offset + i;
+    }
+}
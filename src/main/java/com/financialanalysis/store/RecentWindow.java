@@ -0,0 +1,36 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.PriceSeries;
+import lombok.Data;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The last days of every stock, as read from the {@link RecentWindowStore} snapshot
+ */
+@Data
+public class RecentWindow {
+    // Most days kept per stock
+    private final int window;
+    private final Map<String, PriceSeries> series;
+
+    /**
+     * The recent days of symbol, if the snapshot has it and it goes back to startDay. A stock with
+     * fewer days than the window has its whole history in the snapshot, so it always does.
+     */
+    public Optional<PriceSeries> get(String symbol, int startDay) {
+        PriceSeries recent = series.get(symbol);
+        if(recent == null) {
+            return Optional.empty();
+        }
+        if(recent.size() >= window && recent.epochDayAt(0) > startDay) {
+            return Optional.empty();
+        }
+        return Optional.of(recent);
+    }
+
+    public int size() {
+        return series.size();
+    }
+}
@@ -0,0 +1,252 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.PriceSeries;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.financialanalysis.workflow.Main.recentWindowDays;
+
+/**
+ * Keeps the last days of every stock together in one file, so a scan over all stocks is one
+ * sequential read instead of a file per stock. Big endian:
+ *
+ *   header   int magic, int version, int number of stocks, int window, long symbols offset
+ *   blocks   for each stock, its last window days in {@link BinaryStockFormat} with a capacity
+ *            of window, so every block is the same size
+ *   symbols  for each stock in the same order, short length then the symbol in UTF-8
+ *
+ * The symbols come last so each block can be written as soon as its stock is read.
+ *
+ * The stock store stays the source of truth, this is rebuilt from it after every update.
+ */
+@Log4j
+public class RecentWindowStore {
+    static {
+        createSnapshotStore();
+    }
+
+    @SneakyThrows
+    private static void createSnapshotStore() {
+        Path path = Paths.get(getSnapshotStoreDir());
+        if(!Files.exists(path)) {
+            Files.createDirectories(path);
+        }
+    }
+
+    private static String getSnapshotStoreDir() {
+        return "var/snapshot/";
+    }
+
+    private static final String FILE_NAME = "recent.bin";
+    private static final int MAGIC = 0x46415257; // "FARW"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int BATCH_SIZE = 100;
+
+    private final StockStore stockStore;
+
+    @Inject
+    public RecentWindowStore(StockStore stockStore) {
+        this.stockStore = stockStore;
+    }
+
+    private static Path getSnapshotFile() {
+        return Paths.get(getSnapshotStoreDir() + FILE_NAME);
+    }
+
+    /**
+     * Reads the whole snapshot, empty if there is none or it can't be read
+     */
+    public Optional<RecentWindow> load() {
+        Path path = getSnapshotFile();
+        if(!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        try {
+            Snapshot snapshot = Snapshot.map(path);
+            // Pull the entire file in now rather than faulting it in block by block during the scan
+            snapshot.buffer.load();
+
+            Map<String, PriceSeries> series = new HashMap<>();
+            for(int i = 0; i < snapshot.symbols.size(); i++) {
+                series.put(snapshot.symbols.get(i), MappedPriceSeries.wrap(snapshot.block(i)));
+            }
+            log.info("Loaded recent window of " + series.size() + " stocks");
+            return Optional.of(new RecentWindow(snapshot.window, series));
+        } catch (IOException e) {
+            log.error("Malformed recent window snapshot", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Rewrites the snapshot for allSymbols. Only the stocks in updated are read from the stock
+     * store, the rest are copied over from the old snapshot when it has them. Each block goes
+     * straight into the new file, so only the batch being read is ever on the heap.
+     */
+    @SneakyThrows
+    public void refresh(List<Symbol> allSymbols, Set<Symbol> updated) {
+        log.info("Refreshing recent window snapshot");
+        int window = recentWindowDays;
+        int blockSize = (int) BinaryStockFormat.fileSize(window);
+
+        Map<String, Integer> oldIndex = new HashMap<>();
+        Snapshot old = null;
+        Path path = getSnapshotFile();
+        if(Files.exists(path)) {
+            try {
+                old = Snapshot.map(path);
+            } catch (IOException e) {
+                log.error("Malformed recent window snapshot, rebuilding it", e);
+            }
+        }
+        if(old != null && old.window == window) {
+            for(int i = 0; i < old.symbols.size(); i++) {
+                oldIndex.put(old.symbols.get(i), i);
+            }
+        }
+
+        // Keep the stocks that actually have data, in symbol order
+        List<String> symbols = Lists.newArrayList();
+        int read = 0;
+        Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for(List<Symbol> batch : Lists.partition(allSymbols, BATCH_SIZE)) {
+                List<Symbol> toLoad = Lists.newArrayList();
+                for(Symbol symbol : batch) {
+                    if(updated.contains(symbol) || !oldIndex.containsKey(symbol.getSymbol())) {
+                        toLoad.add(symbol);
+                    }
+                }
+
+                Map<Symbol, StockFA> loaded = toLoad.isEmpty() ? new HashMap<>() : stockStore.loadMapped(toLoad);
+                for(Symbol symbol : batch) {
+                    StockFA stock = loaded.get(symbol);
+                    ByteBuffer block;
+                    if(stock != null) {
+                        block = ByteBuffer.wrap(encode(stock.getPriceSeries(), window));
+                        read++;
+                    } else if(!toLoad.contains(symbol)) {
+                        block = old.block(oldIndex.get(symbol.getSymbol()));
+                    } else {
+                        continue;
+                    }
+
+                    BinaryStockFormat.writeFully(channel, block, position);
+                    symbols.add(symbol.getSymbol());
+                    position += blockSize;
+                }
+            }
+
+            long symbolsOffset = position;
+            for(String symbol : symbols) {
+                byte[] name = symbol.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer entry = ByteBuffer.allocate(Short.BYTES + name.length);
+                entry.putShort((short) name.length);
+                entry.put(name);
+                entry.flip();
+                BinaryStockFormat.writeFully(channel, entry, position);
+                position += entry.capacity();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(symbols.size());
+            header.putInt(window);
+            header.putLong(symbolsOffset);
+            header.flip();
+            BinaryStockFormat.writeFully(channel, header, 0);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.info(String.format("Recent window snapshot has %d stocks, %d read from the stock store", symbols.size(), read));
+    }
+
+    private static byte[] encode(PriceSeries series, int window) {
+        int from = Math.max(0, series.size() - window);
+        return BinaryStockFormat.encode(series.subSeries(from, series.size()).asList(), window);
+    }
+
+    /**
+     * An existing snapshot file, mapped read only
+     */
+    private static class Snapshot {
+        private final MappedByteBuffer buffer;
+        private final List<String> symbols;
+        private final int window;
+        private final int blockSize;
+        private final int blocksOffset;
+
+        private Snapshot(MappedByteBuffer buffer, List<String> symbols, int window, int blocksOffset) {
+            this.buffer = buffer;
+            this.symbols = symbols;
+            this.window = window;
+            this.blockSize = (int) BinaryStockFormat.fileSize(window);
+            this.blocksOffset = blocksOffset;
+        }
+
+        static Snapshot map(Path path) throws IOException {
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Not a recent window snapshot");
+                }
+
+                int version = buffer.getInt(4);
+                if(version != VERSION) {
+                    throw new IOException("Unsupported recent window snapshot version " + version);
+                }
+
+                int count = buffer.getInt(8);
+                int window = buffer.getInt(12);
+                long symbolsOffset = buffer.getLong(16);
+                Snapshot snapshot = new Snapshot(buffer, Lists.newArrayListWithCapacity(count), window, HEADER_SIZE);
+                if(symbolsOffset > buffer.limit() || HEADER_SIZE + (long) count * snapshot.blockSize > symbolsOffset) {
+                    throw new IOException("Truncated recent window snapshot");
+                }
+
+                ByteBuffer names = buffer.duplicate();
+                names.position((int) symbolsOffset);
+                for(int i = 0; i < count; i++) {
+                    byte[] name = new byte[names.getShort()];
+                    names.get(name);
+                    snapshot.symbols.add(new String(name, StandardCharsets.UTF_8));
+                }
+                return snapshot;
+            }
+        }
+
+        /**
+         * View of the i'th stock's block
+         */
+        ByteBuffer block(int i) {
+            ByteBuffer block = buffer.duplicate();
+            block.position(blocksOffset + i * blockSize);
+            block.limit(blocksOffset + (i + 1) * blockSize);
+            return block.slice();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.financialanalysis.store;
+
+import lombok.Data;
+
+/**
+ * What {@link StockStore#cleanStockStore} found wrong with one stock
+ */
+@Data
+public class StockIntegrity {
+    private final String symbol;
+    private int days;
+    // Days earlier than the day before them
+    private int outOfOrder;
+    // Days stored more than once, only the first is kept
+    private int duplicates;
+    // Longer than a week between two trading days
+    private int gaps;
+    // Days with an open, low, high or close that is not above zero
+    private int nonPositivePrices;
+    // Runs of at least a week of days without volume
+    private int zeroVolumeRuns;
+    private int longestZeroVolumeRun;
+    private boolean malformed;
+    private boolean repaired;
+
+    /**
+     * Order and duplicates can be fixed without guessing at prices, everything else is only reported
+     */
+    public boolean needsRepair() {
+        return outOfOrder > 0 || duplicates > 0;
+    }
+
+    public boolean hasIssues() {
+        return needsRepair() || gaps > 0 || nonPositivePrices > 0 || zeroVolumeRuns > 0 || malformed;
+    }
+}
@@ -1,30 +1,39 @@
 package com.financialanalysis.store;
 
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.StockPriceDeserializer;
-import com.financialanalysis.data.StockPriceSerializer;
 import com.financialanalysis.data.Symbol;
-import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j;
 import org.apache.commons.io.FileUtils;
-import org.jfree.data.time.Day;
 import org.joda.time.DateTime;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 @Log4j
 public class StockStore {
@@ -44,20 +53,52 @@ public class StockStore {
         return "var/stocks/";
     }
 
+    static final String BINARY_EXTENSION = ".bin";
+    // Changed on every write, kept beside the store so it is never mistaken for a stock
+    private static final String GENERATION_FILE = "var/stocks.generation";
+
+    // Longest a market is closed, anything longer between two days is reported as a gap
+    private static final int MAX_GAP_DAYS = 7;
+    // Days in a row without volume before they are reported
+    private static final int MIN_ZERO_VOLUME_RUN = 5;
+
+    static File getBinaryFile(String symbol) {
+        return new File(getStockStoreDir() + symbol + BINARY_EXTENSION);
+    }
+
+    /**
+     * Stocks used to be stored as Gson json in a file named after the symbol
+     */
+    static File getLegacyJsonFile(String symbol) {
+        return new File(getStockStoreDir() + symbol);
+    }
+
+    static File[] listLegacyJsonFiles() {
+        File[] files = new File(getStockStoreDir()).listFiles(f -> f.isFile() && !f.getName().endsWith(BINARY_EXTENSION) && !f.getName().endsWith(".tmp"));
+        return files == null ? new File[0] : files;
+    }
+
     @SneakyThrows
     public Map<Symbol, StockFA> load(List<Symbol> symbols) {
-        Gson gson = new GsonBuilder().registerTypeAdapter(StockPrice.class, new StockPriceDeserializer()).create();
-//        Type listType = new TypeToken<ArrayList<StockFA>>() {}.getType();
         Map<Symbol, StockFA> map = new HashMap<>();
 
         for(Symbol symbol : symbols) {
-            File stockFile = new File(getStockStoreDir() + symbol.getSymbol());
-            if(!stockFile.exists()) continue;
+            File binaryFile = getBinaryFile(symbol.getSymbol());
+            if(binaryFile.exists()) {
+                try {
+                    map.put(symbol, BinaryStockFormat.read(binaryFile.toPath(), symbol));
+                } catch (IOException e) {
+                    log.error("Malformed stock file: " + symbol, e);
+                }
+                continue;
+            }
+
+            // Fall back to json until the store has been migrated
+            File legacyFile = getLegacyJsonFile(symbol.getSymbol());
+            if(!legacyFile.exists()) continue;
 
-            String json = FileUtils.readFileToString(stockFile);
             try {
-                StockFA stock = gson.fromJson(json, StockFA.class);
-                map.put(symbol, stock);
+                map.put(symbol, readLegacyJson(legacyFile));
             } catch (Exception e) {
                 log.error("Malformed json: " + symbol);
             }
@@ -66,77 +107,326 @@ public class StockStore {
         return map;
     }
 
+    /**
+     * Maps each stock's binary file instead of reading it onto the heap. Stocks that are missing or have
+     * not been migrated from json are left out.
+     */
+    public Map<Symbol, PriceSeries> loadSeries(List<Symbol> symbols) {
+        Map<Symbol, PriceSeries> map = new HashMap<>();
+
+        for(Symbol symbol : symbols) {
+            File binaryFile = getBinaryFile(symbol.getSymbol());
+            if(!binaryFile.exists()) continue;
+
+            try {
+                map.put(symbol, MappedPriceSeries.map(binaryFile.toPath()));
+            } catch (IOException e) {
+                log.error("Malformed stock file: " + symbol, e);
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Same as {@link #load(List)}, but the history of each binary stock is a view over its mapped file
+     */
+    public Map<Symbol, StockFA> loadMapped(List<Symbol> symbols) {
+        Map<Symbol, StockFA> map = new HashMap<>();
+
+        Map<Symbol, PriceSeries> series = loadSeries(symbols);
+        series.forEach((symbol, s) -> map.put(symbol, new StockFA(symbol, s)));
+
+        List<Symbol> notMapped = symbols.stream().filter(s -> !series.containsKey(s)).collect(Collectors.toList());
+        map.putAll(load(notMapped));
+
+        return map;
+    }
+
+    /**
+     * Identifies the current contents of the store, it changes whenever a stock is written or deleted.
+     * 0 if nothing has been written since generations were added.
+     */
+    static long getGeneration() {
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(Paths.get(GENERATION_FILE))).getLong();
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException | BufferUnderflowException e) {
+            // Part way through being written by another process, so the store is changing
+            return -1;
+        }
+    }
+
+    /**
+     * Called before and after every write. Before, so a crash part way through still leaves a new
+     * generation, and after, so anything read from the store while the write was landing is stale.
+     */
+    @SneakyThrows
+    private static void nextGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while(generation == 0 || generation == -1);
+        Files.write(Paths.get(GENERATION_FILE), ByteBuffer.allocate(Long.BYTES).putLong(generation).array());
+    }
+
+    @SneakyThrows
+    static StockFA readLegacyJson(File file) {
+        Gson gson = new GsonBuilder().registerTypeAdapter(StockPrice.class, new StockPriceDeserializer()).create();
+        String json = FileUtils.readFileToString(file);
+        return gson.fromJson(json, StockFA.class);
+    }
+
     @SneakyThrows
     public void store(Map<Symbol, StockFA> stocks) {
-        Gson gson = new GsonBuilder().registerTypeAdapter(StockPrice.class, new StockPriceSerializer()).create();
         Set<Symbol> symbols = stocks.keySet();
+        nextGeneration();
+        try {
+            for(Symbol symbol : symbols) {
+                BinaryStockFormat.write(getBinaryFile(symbol.getSymbol()).toPath(), stocks.get(symbol));
 
-        for(Symbol symbol : symbols) {
-            String json = gson.toJson(stocks.get(symbol));
-            File file = new File(getStockStoreDir() + symbol.getSymbol());
-            FileUtils.writeStringToFile(file, json);
+                // The binary file now holds the entire history
+                File legacyFile = getLegacyJsonFile(symbol.getSymbol());
+                if(legacyFile.exists()) {
+                    legacyFile.delete();
+                }
+            }
+        } finally {
+            nextGeneration();
+        }
+    }
+
+    /**
+     * Adds prices, which must all be after the last stored day, to the end of a stored stock. Only the
+     * new days are written for a binary stock, a stock still in json is rewritten whole as binary, and
+     * a stock that isn't stored yet is stored with just these prices.
+     */
+    @SneakyThrows
+    public void append(Symbol symbol, List<StockPrice> prices) {
+        File binaryFile = getBinaryFile(symbol.getSymbol());
+        if(binaryFile.exists()) {
+            nextGeneration();
+            try {
+                BinaryStockFormat.append(binaryFile.toPath(), prices);
+            } finally {
+                nextGeneration();
+            }
+            return;
+        }
+
+        List<StockPrice> history = new ArrayList<>();
+        File legacyFile = getLegacyJsonFile(symbol.getSymbol());
+        if(legacyFile.exists()) {
+            history.addAll(readLegacyJson(legacyFile).getHistory());
         }
+
+        int lastDay = history.isEmpty() ? Integer.MIN_VALUE : DateTimeUtils.toEpochDay(history.get(history.size() - 1).getDate());
+        BinaryStockFormat.validateOrder(prices, lastDay);
+        history.addAll(prices);
+
+        Map<Symbol, StockFA> stock = new HashMap<>();
+        stock.put(symbol, new StockFA(symbol, history));
+        store(stock);
     }
 
     public void delete(List<Symbol> symbols) {
-        for(Symbol symbol : symbols) {
-            File stockFile = new File(getStockStoreDir() + symbol.getSymbol());
-            if(!stockFile.exists()) continue;
-            stockFile.delete();
+        nextGeneration();
+        try {
+            for(Symbol symbol : symbols) {
+                File binaryFile = getBinaryFile(symbol.getSymbol());
+                if(binaryFile.exists()) binaryFile.delete();
+
+                File legacyFile = getLegacyJsonFile(symbol.getSymbol());
+                if(legacyFile.exists()) legacyFile.delete();
+            }
+        } finally {
+            nextGeneration();
         }
     }
 
     public int size() {
-        return new File(getStockStoreDir()).listFiles().length;
+        String[] names = new File(getStockStoreDir()).list();
+        if(names == null) return 0;
+
+        // A stock part way through migration may have both a json and binary file
+        return (int) Arrays.stream(names)
+                .filter(n -> !n.endsWith(".tmp"))
+                .map(n -> n.endsWith(BINARY_EXTENSION) ? n.substring(0, n.length() - BINARY_EXTENSION.length()) : n)
+                .distinct()
+                .count();
     }
 
+    /**
+     * Checks every stock in parallel on a pool of its own for days out of order, duplicate days, gaps, non-positive prices
+     * and runs without volume. Each stock is read straight from its mapped series, nothing is built
+     * per day unless it needs repair. Stocks out of order or with duplicates are rewritten sorted,
+     * keeping one price per day, see {@link #repair}, and everything else is only reported.
+     */
     @SneakyThrows
-    public void cleanStockStore(List<Symbol> allSymbols) {
+    public IntegrityReport cleanStockStore(List<Symbol> allSymbols) {
         log.info("Cleaning stock store");
-        List<List<Symbol>> lists = Lists.partition(allSymbols, 100);
-
-        lists.forEach(list -> {
-            Map<Symbol, StockFA> stockMap = load(list);
-            Collection<StockFA> stocks = stockMap.values();
-            stocks.forEach(s -> {
-                clean(s);
-            });
-        });
-    }
-
-    private void clean(StockFA stock) {
-        // Make sure each day is unique
-        Map<Day, StockPrice> map = new LinkedHashMap<>();
-        boolean corrupt = false;
-        for(StockPrice p : stock.getHistory()) {
-            DateTime date = p.getDate();
-            Day day = new Day(date.toDate());
-
-            if(!map.containsKey(day)) {
-                map.put(day, p);
-            } else {
-                corrupt = true;
-                log.info(stock.getSymbol() + " corrupt " + map.get(day) + " : " + p);
-
-                DateTime found = map.get(day).getDate();
-                DateTime nextFound = date;
-
-                if(found.hourOfDay().get() == 0) {
-                    // Do nothing as we have the correct DateTime
-                } else if(nextFound.hourOfDay().get() == 0) {
-                    // Remove the found from map
-                    map.remove(day);
-                    // Put in this one
-                    map.put(day, p);
-                } else {
-                    log.error("Found multiple corrupt entries");
-                }
+        long start = System.currentTimeMillis();
+
+        // The checks block on reads and rewrites, so they get their own threads rather than the common pool
+        ExecutorService executor = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+        List<StockIntegrity> checked = new ArrayList<>();
+        try {
+            List<Future<Optional<StockIntegrity>>> futures = new ArrayList<>(allSymbols.size());
+            for(Symbol symbol : allSymbols) {
+                futures.add(executor.submit(() -> clean(symbol)));
             }
+            for(Future<Optional<StockIntegrity>> future : futures) {
+                future.get().ifPresent(checked::add);
+            }
+        } finally {
+            executor.shutdownNow();
         }
-        if(corrupt) {
+
+        List<StockIntegrity> issues = checked.stream().filter(StockIntegrity::hasIssues).collect(Collectors.toList());
+        int repaired = (int) issues.stream().filter(StockIntegrity::isRepaired).count();
+        long millis = System.currentTimeMillis() - start;
+        log.info(String.format("Checked %d stocks in %d ms, %d have issues, %d repaired", checked.size(), millis, issues.size(), repaired));
+
+        return new IntegrityReport(DateTime.now().toString(), checked.size(), repaired, millis, issues);
+    }
+
+    /**
+     * Empty if the stock isn't stored
+     */
+    private Optional<StockIntegrity> clean(Symbol symbol) {
+        StockIntegrity integrity = new StockIntegrity(symbol.getSymbol());
+        StockFA stock;
+        try {
+            Optional<StockFA> loaded = loadForCheck(symbol);
+            if(!loaded.isPresent()) {
+                return Optional.empty();
+            }
+            stock = loaded.get();
+        } catch (Exception e) {
+            log.error("Malformed stock file: " + symbol, e);
+            integrity.setMalformed(true);
+            return Optional.of(integrity);
+        }
+
+        PriceSeries series = stock.getPriceSeries();
+        check(series, integrity);
+        if(integrity.needsRepair()) {
+            log.info(symbol.getSymbol() + " corrupt: " + integrity);
+            // Copy the days out and unmap the file before it is replaced, nothing reads the mapping after this
+            List<StockPrice> history = repair(stock.getHistory());
+            if(series instanceof MappedPriceSeries) {
+                ((MappedPriceSeries) series).unmap();
+            }
+
             Map<Symbol, StockFA> toStore = new HashMap<>();
-            toStore.put(stock.getSymbol(), new StockFA(stock.getSymbol(), new ArrayList<>(map.values())));
+            toStore.put(symbol, new StockFA(symbol, history));
             store(toStore);
+            integrity.setRepaired(true);
+        }
+        return Optional.of(integrity);
+    }
+
+    /**
+     * A binary stock is a view over its mapped file, a json stock keeps the times of day it was stored with
+     */
+    private Optional<StockFA> loadForCheck(Symbol symbol) throws IOException {
+        File binaryFile = getBinaryFile(symbol.getSymbol());
+        if(binaryFile.exists()) {
+            return Optional.of(new StockFA(symbol, MappedPriceSeries.map(binaryFile.toPath())));
+        }
+
+        File legacyFile = getLegacyJsonFile(symbol.getSymbol());
+        if(legacyFile.exists()) {
+            return Optional.of(readLegacyJson(legacyFile));
+        }
+        return Optional.empty();
+    }
+
+    static void check(PriceSeries series, StockIntegrity integrity) {
+        int size = series.size();
+        integrity.setDays(size);
+
+        int outOfOrder = 0;
+        int nonPositive = 0;
+        int zeroVolumeRuns = 0;
+        int longestRun = 0;
+        int run = 0;
+        for(int i = 0; i < size; i++) {
+            if(i > 0 && series.epochDayAt(i) < series.epochDayAt(i - 1)) {
+                outOfOrder++;
+            }
+
+            // Written so NaN counts as well
+            if(!(series.openAt(i) > 0 && series.lowAt(i) > 0 && series.highAt(i) > 0 && series.closeAt(i) > 0)) {
+                nonPositive++;
+            }
+
+            if(series.volumeAt(i) == 0) {
+                run++;
+                if(run == MIN_ZERO_VOLUME_RUN) {
+                    zeroVolumeRuns++;
+                }
+                longestRun = Math.max(longestRun, run);
+            } else {
+                run = 0;
+            }
+        }
+
+        // Duplicates and gaps are between neighbouring days once in order, which is how nearly every stock already is
+        int[] days = new int[size];
+        for(int i = 0; i < size; i++) {
+            days[i] = series.epochDayAt(i);
+        }
+        if(outOfOrder > 0) {
+            Arrays.sort(days);
+        }
+
+        int duplicates = 0;
+        int gaps = 0;
+        for(int i = 1; i < size; i++) {
+            if(days[i] == days[i - 1]) {
+                duplicates++;
+            } else if(days[i] - days[i - 1] > MAX_GAP_DAYS) {
+                gaps++;
+            }
+        }
+
+        integrity.setOutOfOrder(outOfOrder);
+        integrity.setDuplicates(duplicates);
+        integrity.setGaps(gaps);
+        integrity.setNonPositivePrices(nonPositive);
+        integrity.setZeroVolumeRuns(zeroVolumeRuns);
+        integrity.setLongestZeroVolumeRun(longestRun);
+    }
+
+    /**
+     * The days in chronological order with one price each. Of several prices on the same day the one
+     * stamped at midnight is kept, as the store always has, otherwise the first. Binary stocks are
+     * all stamped at midnight, so they keep the first. The prices are copies on the heap.
+     */
+    static List<StockPrice> repair(List<StockPrice> history) {
+        int[] days = new int[history.size()];
+        Integer[] rows = new Integer[history.size()];
+        List<StockPrice> prices = new ArrayList<>(history);
+        for(int i = 0; i < rows.length; i++) {
+            days[i] = DateTimeUtils.toEpochDay(prices.get(i).getDate());
+            rows[i] = i;
+        }
+        // Stable, so the first of each day stays first
+        Arrays.sort(rows, Comparator.comparingInt(row -> days[row]));
+
+        List<StockPrice> repaired = new ArrayList<>(rows.length);
+        int previous = Integer.MIN_VALUE;
+        for(int row : rows) {
+            StockPrice price = prices.get(row);
+            if(days[row] != previous) {
+                repaired.add(price);
+                previous = days[row];
+            } else if(repaired.get(repaired.size() - 1).getDate().getHourOfDay() != 0 && price.getDate().getHourOfDay() == 0) {
+                repaired.set(repaired.size() - 1, price);
+            }
         }
+        return repaired;
     }
 }
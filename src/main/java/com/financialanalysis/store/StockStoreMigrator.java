@@ -0,0 +1,64 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
+import lombok.extern.log4j.Log4j;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One shot conversion of var/stocks/ from per symbol Gson json to {@link BinaryStockFormat}.
+ *
+ * Each json file is only deleted once its binary replacement is durably on disk and has been read
+ * back with the same number of days, so the migration can safely be rerun after an interruption.
+ */
+@Log4j
+public class StockStoreMigrator {
+    public void migrate() {
+        File[] legacyFiles = StockStore.listLegacyJsonFiles();
+        log.info("Migrating " + legacyFiles.length + " json stocks to binary");
+
+        AtomicInteger migrated = new AtomicInteger(0);
+        AtomicInteger failed = new AtomicInteger(0);
+
+        Arrays.stream(legacyFiles).parallel().forEach(file -> {
+            if(migrate(file)) {
+                int num = migrated.incrementAndGet();
+                if(num % 1000 == 0) {
+                    log.info(String.format("Migrated %d/%d", num, legacyFiles.length));
+                }
+            } else {
+                failed.incrementAndGet();
+            }
+        });
+
+        log.info(String.format("Migration finished. Migrated: %d, Failed: %d", migrated.get(), failed.get()));
+    }
+
+    private boolean migrate(File legacyFile) {
+        String symbolName = legacyFile.getName();
+        try {
+            StockFA stock = StockStore.readLegacyJson(legacyFile);
+            Symbol symbol = stock.getSymbol();
+
+            Path binaryPath = StockStore.getBinaryFile(symbolName).toPath();
+            BinaryStockFormat.write(binaryPath, stock);
+
+            StockFA readBack = BinaryStockFormat.read(binaryPath, symbol);
+            if(readBack.getHistory().size() != stock.getHistory().size()) {
+                log.error("Binary verification failed for " + symbolName);
+                return false;
+            }
+
+            // write has forced the binary file and its directory entry to disk, so the json is no longer needed
+            legacyFile.delete();
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to migrate " + symbolName, e);
+            return false;
+        }
+    }
+}
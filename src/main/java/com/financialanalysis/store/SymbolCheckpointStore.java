@@ -0,0 +1,112 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.Symbol;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.financialanalysis.workflow.Main.symbolCheckpointHours;
+
+/**
+ * Progress of a symbol refresh. Each finished batch of ids is appended as one json line, so a
+ * refresh that is interrupted can skip the batches it already has. Batches pulled longer ago than
+ * --symbolCheckpointHours are left out, so a refresh that failed long ago isn't resumed.
+ */
+@Log4j
+public class SymbolCheckpointStore {
+    private final String FILE_NAME = "checkpoint";
+    private final Gson gson = new Gson();
+
+    static {
+        createCheckpointStore();
+    }
+
+    @SneakyThrows
+    private static void createCheckpointStore() {
+        Path path = Paths.get(getCheckpointStoreDir());
+        if(!Files.exists(path)) {
+            Files.createDirectories(path);
+        }
+    }
+
+    private static String getCheckpointStoreDir() {
+        return "var/symbols/";
+    }
+
+    /**
+     * Symbols found in each finished batch that is recent enough, keyed by the first id of the batch
+     */
+    @SneakyThrows
+    public Map<Integer, List<Symbol>> load() {
+        Map<Integer, List<Symbol>> batches = new TreeMap<>();
+        File file = new File(getCheckpointStoreDir() + FILE_NAME);
+        if(!file.exists()) {
+            return batches;
+        }
+
+        long oldest = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(symbolCheckpointHours);
+        int stale = 0;
+        try(BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                try {
+                    FinishedBatch batch = gson.fromJson(line, FinishedBatch.class);
+                    if(batch == null || batch.getSymbols() == null) {
+                        continue;
+                    }
+                    if(batch.getPulledAt() < oldest) {
+                        stale++;
+                        continue;
+                    }
+                    batches.put(batch.getFirstId(), batch.getSymbols());
+                } catch (JsonSyntaxException e) {
+                    // A line cut short by the interruption, that batch is pulled again
+                    log.info("Ignoring partial checkpoint line");
+                }
+            }
+        }
+
+        if(stale > 0) {
+            log.info(String.format("Ignoring %d checkpoint batches older than %d hours", stale, symbolCheckpointHours));
+        }
+        return batches;
+    }
+
+    @SneakyThrows
+    public synchronized void append(int firstId, List<Symbol> symbols) {
+        try(Writer writer = new FileWriter(getCheckpointStoreDir() + FILE_NAME, true)) {
+            writer.write(gson.toJson(new FinishedBatch(firstId, System.currentTimeMillis(), symbols)));
+            writer.write('\n');
+        }
+    }
+
+    public synchronized void clear() {
+        File file = new File(getCheckpointStoreDir() + FILE_NAME);
+        if(file.exists()) {
+            file.delete();
+        }
+    }
+
+    @Data
+    private static class FinishedBatch {
+        private final int firstId;
+        // Missing from checkpoints written before it was added, which are then always too old
+        private final long pulledAt;
+        private final List<Symbol> symbols;
+    }
+}
@@ -0,0 +1,51 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.PriceSeries;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Every stock's history, mapped from the single file written by {@link UniverseStore}.
+ *
+ * The prices live in the page cache rather than on the heap and are only read with absolute
+ * reads, so the whole market can be shared by any number of threads.
+ */
+public class UniverseMatrix {
+    private final Map<String, PriceSeries> directory;
+
+    UniverseMatrix(Map<String, PriceSeries> directory) {
+        this.directory = Collections.unmodifiableMap(directory);
+    }
+
+    public Optional<PriceSeries> get(String symbol) {
+        return Optional.ofNullable(directory.get(symbol));
+    }
+
+    /**
+     * The stocks in symbols, in the same order, leaving out those that aren't in the universe
+     */
+    public List<StockFA> getStocks(List<Symbol> symbols) {
+        List<StockFA> stocks = new ArrayList<>(symbols.size());
+        for(Symbol symbol : symbols) {
+            PriceSeries series = directory.get(symbol.getSymbol());
+            if(series != null) {
+                stocks.add(new StockFA(symbol, series));
+            }
+        }
+        return stocks;
+    }
+
+    public boolean contains(String symbol) {
+        return directory.containsKey(symbol);
+    }
+
+    public int size() {
+        return directory.size();
+    }
+}
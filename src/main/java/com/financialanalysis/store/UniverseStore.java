@@ -0,0 +1,240 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.data.PriceSeries;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps the entire stock store in one file that is mapped as a {@link UniverseMatrix}. Big endian:
+ *
+ *   header     int magic, int version, int number of stocks, int unused, long directory offset,
+ *              long generation of the stock store it was built from
+ *   blocks     each stock's history in {@link BinaryStockFormat}, with no spare rows
+ *   directory  for each stock, short length then the symbol in UTF-8, then long offset of its block
+ *
+ * A mapping can't be larger than 2GB, so the file is mapped in chunks of CHUNK_SIZE and a block
+ * never straddles two chunks, the space left at the end of a chunk is padding.
+ *
+ * The stock store stays the source of truth. The universe is only used while the store is still at
+ * the generation it was built from, see {@link StockStore#getGeneration()}, otherwise the next whole
+ * market run builds it again. The generation is read before the build starts, so a write that lands
+ * part way through leaves the new universe stale rather than missing it.
+ */
+@Log4j
+public class UniverseStore {
+    static {
+        createUniverseStore();
+    }
+
+    @SneakyThrows
+    private static void createUniverseStore() {
+        Path path = Paths.get(getUniverseStoreDir());
+        if(!Files.exists(path)) {
+            Files.createDirectories(path);
+        }
+    }
+
+    private static String getUniverseStoreDir() {
+        return "var/universe/";
+    }
+
+    private static final String FILE_NAME = "universe.bin";
+    private static final int MAGIC = 0x4641554D; // "FAUM"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int BATCH_SIZE = 100;
+    static final long CHUNK_SIZE = 1L << 30;
+
+    private final StockStore stockStore;
+
+    @Inject
+    public UniverseStore(StockStore stockStore) {
+        this.stockStore = stockStore;
+    }
+
+    private static Path getUniverseFile() {
+        return Paths.get(getUniverseStoreDir() + FILE_NAME);
+    }
+
+    /**
+     * Maps the universe, empty if it hasn't been built, can't be read or is older than the stock store
+     */
+    public Optional<UniverseMatrix> load() {
+        Path path = getUniverseFile();
+        if(!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        try {
+            return map(path, StockStore.getGeneration());
+        } catch (IOException e) {
+            log.error("Malformed universe", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Maps the universe, building it from the stock store first if there isn't one
+     */
+    public UniverseMatrix loadOrBuild(List<Symbol> symbols) {
+        Optional<UniverseMatrix> universe = load();
+        if(universe.isPresent()) {
+            return universe.get();
+        }
+        build(symbols);
+        return load().orElseThrow(() -> new IllegalStateException("Universe was not built"));
+    }
+
+    /**
+     * Writes every stored stock in symbols into a new universe. Stocks are read from the store
+     * in batches and written out straight away, so only one batch is ever on the heap. A mapped
+     * stock's columns are copied straight from its file, only a stock still in json is encoded.
+     */
+    @SneakyThrows
+    public void build(List<Symbol> symbols) {
+        log.info("Building universe of " + symbols.size() + " stocks");
+        long start = System.nanoTime();
+        long generation = StockStore.getGeneration();
+
+        Path path = getUniverseFile();
+        Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+        List<String> names = Lists.newArrayList();
+        List<Long> offsets = Lists.newArrayList();
+
+        try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for(List<Symbol> batch : Lists.partition(symbols, BATCH_SIZE)) {
+                Map<Symbol, StockFA> stocks = stockStore.loadMapped(batch);
+                for(Symbol symbol : batch) {
+                    StockFA stock = stocks.get(symbol);
+                    if(stock == null) continue;
+
+                    PriceSeries series = stock.getPriceSeries();
+                    long blockSize = BinaryStockFormat.fileSize(series.size());
+                    if(blockSize > CHUNK_SIZE) {
+                        throw new IOException("Stock too large for the universe: " + symbol.getSymbol());
+                    }
+                    // Skip to the next chunk rather than straddle the boundary
+                    if(position / CHUNK_SIZE != (position + blockSize - 1) / CHUNK_SIZE) {
+                        position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+                    }
+
+                    if(series instanceof MappedPriceSeries) {
+                        ((MappedPriceSeries) series).writeTo(channel, position);
+                    } else {
+                        writeFully(channel, ByteBuffer.wrap(BinaryStockFormat.encode(stock.getHistory(), series.size())), position);
+                    }
+                    names.add(symbol.getSymbol());
+                    offsets.add(position);
+                    position += blockSize;
+                }
+            }
+
+            long directoryOffset = position;
+            for(int i = 0; i < names.size(); i++) {
+                byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer entry = ByteBuffer.allocate(Short.BYTES + name.length + Long.BYTES);
+                entry.putShort((short) name.length);
+                entry.put(name);
+                entry.putLong(offsets.get(i));
+                entry.flip();
+                writeFully(channel, entry, position);
+                position += entry.capacity();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(names.size());
+            header.putInt(0);
+            header.putLong(directoryOffset);
+            header.putLong(generation);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(false);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        double seconds = (double) (System.nanoTime() - start) / 1000000000.0;
+        log.info(String.format("Built universe of %d stocks in %d seconds", names.size(), (int) seconds));
+    }
+
+    /**
+     * Empty if the universe wasn't built from generation of the stock store
+     */
+    private static Optional<UniverseMatrix> map(Path path, long generation) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header, header.position()) >= 0);
+            if(header.position() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a universe file");
+            }
+
+            int version = header.getInt(4);
+            if(version != VERSION) {
+                throw new IOException("Unsupported universe file version " + version);
+            }
+
+            long builtFrom = header.getLong(24);
+            if(builtFrom != generation || generation == -1) {
+                log.info("Universe is older than the stock store");
+                return Optional.empty();
+            }
+
+            int count = header.getInt(8);
+            long directoryOffset = header.getLong(16);
+            if(directoryOffset < HEADER_SIZE || directoryOffset > fileSize || fileSize - directoryOffset > Integer.MAX_VALUE) {
+                throw new IOException("Truncated universe file");
+            }
+
+            // The mappings stay valid after the channel is closed
+            int numChunks = (int) ((directoryOffset + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            ByteBuffer[] chunks = new ByteBuffer[numChunks];
+            for(int i = 0; i < numChunks; i++) {
+                long chunkStart = i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(CHUNK_SIZE, directoryOffset - chunkStart));
+            }
+
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, fileSize - directoryOffset);
+            Map<String, PriceSeries> series = new HashMap<>(count * 2);
+            for(int i = 0; i < count; i++) {
+                byte[] name = new byte[directory.getShort()];
+                directory.get(name);
+                long offset = directory.getLong();
+                if(offset < HEADER_SIZE || offset >= directoryOffset) {
+                    throw new IOException("Truncated universe file");
+                }
+
+                ByteBuffer block = chunks[(int) (offset / CHUNK_SIZE)].duplicate();
+                block.position((int) (offset % CHUNK_SIZE));
+                series.put(new String(name, StandardCharsets.UTF_8), MappedPriceSeries.wrap(block.slice()));
+            }
+            return Optional.of(new UniverseMatrix(series));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -67,7 +67,7 @@ public class FlagConfig {
         }
     }
 
-    private static String getFlagConfigDir() {
+    static String getFlagConfigDir() {
         return "var/config/";
     }
 
@@ -96,4 +96,16 @@ public class FlagConfig {
         File configFile = new File(getFlagConfigDir() + FILE_NAME);
         FileUtils.writeStringToFile(configFile, json);
     }
+
+    /**
+     * Save this config next to the flag config, under the given file name
+     */
+    @SneakyThrows
+    public void saveAs(String fileName) {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(this);
+
+        File configFile = new File(getFlagConfigDir() + fileName);
+        FileUtils.writeStringToFile(configFile, json);
+    }
 }
@@ -0,0 +1,140 @@
+package com.financialanalysis.strategy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import lombok.Data;
+import lombok.SneakyThrows;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The values to try for each FlagConfig field in a sweep. Stored as json in var/config/flag-sweep,
+ * mapping a field name to its candidate values, e.g. {"minFlagTopLen": [4, 5, 6]}. Fields that are
+ * not listed keep the value of the base config.
+ */
+@Data
+public class FlagConfigSpace {
+    private static final String FILE_NAME = "flag-sweep";
+    private static final Type SPACE_TYPE = new TypeToken<LinkedHashMap<String, List<Number>>>(){}.getType();
+
+    private final Map<String, List<Number>> values;
+
+    public FlagConfigSpace(Map<String, List<Number>> values) {
+        for(String field : values.keySet()) {
+            checkField(field);
+            if(values.get(field).isEmpty()) {
+                throw new IllegalArgumentException("No values to try for " + field);
+            }
+        }
+        this.values = values;
+    }
+
+    /**
+     * Every combination of the values, in the order they are listed
+     */
+    public List<Map<String, Number>> grid() {
+        List<Map<String, Number>> grid = Lists.newArrayList();
+        grid.add(new LinkedHashMap<>());
+        for(Map.Entry<String, List<Number>> entry : values.entrySet()) {
+            List<Map<String, Number>> next = new ArrayList<>(grid.size() * entry.getValue().size());
+            for(Map<String, Number> partial : grid) {
+                for(Number value : entry.getValue()) {
+                    Map<String, Number> assignment = new LinkedHashMap<>(partial);
+                    assignment.put(entry.getKey(), value);
+                    next.add(assignment);
+                }
+            }
+            grid = next;
+        }
+        return grid;
+    }
+
+    /**
+     * Up to samples distinct combinations, each value picked uniformly
+     */
+    public List<Map<String, Number>> random(int samples, Random random) {
+        int size = size();
+        Set<Map<String, Number>> picked = new LinkedHashSet<>();
+        while(picked.size() < samples && picked.size() < size) {
+            Map<String, Number> assignment = new LinkedHashMap<>();
+            for(Map.Entry<String, List<Number>> entry : values.entrySet()) {
+                List<Number> options = entry.getValue();
+                assignment.put(entry.getKey(), options.get(random.nextInt(options.size())));
+            }
+            picked.add(assignment);
+        }
+        return new ArrayList<>(picked);
+    }
+
+    /**
+     * Number of combinations in the grid, capped at Integer.MAX_VALUE
+     */
+    public int size() {
+        long size = 1;
+        for(List<Number> options : values.values()) {
+            size = Math.min(Integer.MAX_VALUE, size * options.size());
+        }
+        return (int) size;
+    }
+
+    /**
+     * A copy of base with the assigned fields replaced
+     */
+    public static FlagConfig apply(FlagConfig base, Map<String, Number> assignment) {
+        Gson gson = new Gson();
+        JsonObject json = gson.toJsonTree(base).getAsJsonObject();
+        assignment.forEach(json::addProperty);
+        return gson.fromJson(json, FlagConfig.class);
+    }
+
+    private static void checkField(String field) {
+        try {
+            FlagConfig.class.getDeclaredField(field);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("FlagConfig has no field " + field);
+        }
+    }
+
+    /**
+     * Reads var/config/flag-sweep, writing the default space there first if it does not exist
+     */
+    @SneakyThrows
+    public static FlagConfigSpace readFromFile() {
+        File spaceFile = new File(FlagConfig.getFlagConfigDir() + FILE_NAME);
+        if(!spaceFile.exists()) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            FileUtils.writeStringToFile(spaceFile, gson.toJson(defaultSpace().getValues(), SPACE_TYPE));
+        }
+
+        String json = FileUtils.readFileToString(spaceFile);
+        Map<String, List<Number>> values = new Gson().fromJson(json, SPACE_TYPE);
+        return new FlagConfigSpace(values);
+    }
+
+    public static FlagConfigSpace defaultSpace() {
+        Map<String, List<Number>> values = new LinkedHashMap<>(ImmutableMap.<String, List<Number>>builder()
+                .put("minFlagTopLen", Lists.newArrayList(4, 5, 6))
+                .put("maxFlagTopLen", Lists.newArrayList(8, 10, 12))
+                .put("maxFlagPoleLen", Lists.newArrayList(20, 30))
+                .put("flagPoleRSquareThreshold", Lists.newArrayList(0.7, 0.8, 0.9))
+                .put("trendRSquareThreshold", Lists.newArrayList(0.7, 0.8, 0.9))
+                .put("percentageMaxTarget", Lists.newArrayList(0.2, 0.27, 0.35))
+                .put("minPvoHist", Lists.newArrayList(4.0, 8.0, 12.0))
+                .put("zigzagThreshold", Lists.newArrayList(0.1, 0.2))
+                .build());
+        return new FlagConfigSpace(values);
+    }
+}
@@ -0,0 +1,60 @@
+package com.financialanalysis.strategy;
+
+import com.financialanalysis.analysis.AnalysisBaseFunctions;
+import com.financialanalysis.analysis.AnalysisTools;
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.PriceSeries;
+import com.financialanalysis.data.Symbol;
+import lombok.Data;
+import org.joda.time.DateTime;
+
+import java.util.List;
+
+import static com.financialanalysis.analysis.AnalysisTools.getValidPriceSeries;
+
+/**
+ * The parts of a flag run that do not depend on the FlagConfig. Built once per stock and range,
+ * so a sweep can run many configs over the same arrays. Nothing here is written to after it is built.
+ */
+@Data
+public class FlagSeries {
+    private final Symbol symbol;
+    private final PriceSeries validSeries;
+    private final double[] closingPrices;
+    private final double[] openPrices;
+    private final double[] lowPrices;
+    private final double[] highPrices;
+    private final double[] volume;
+    private final double[] sma;
+    private final List<DateTime> dates;
+    // First index a flag may trigger on, the days before it only warm up the indicators
+    private final int tradeFrom;
+
+    public static FlagSeries of(Symbol symbol, PriceSeries series, DateTime start, DateTime end) {
+        return of(symbol, series, start, start, end);
+    }
+
+    /**
+     * The series from warmupStart to end, trading only from start on
+     */
+    public static FlagSeries of(Symbol symbol, PriceSeries series, DateTime warmupStart, DateTime start, DateTime end) {
+        PriceSeries validSeries = getValidPriceSeries(series, warmupStart, end);
+        double[] closingPrices = AnalysisTools.getClosingPrices(validSeries);
+        return new FlagSeries(
+                symbol,
+                validSeries,
+                closingPrices,
+                AnalysisTools.getOpenPrices(validSeries),
+                AnalysisTools.getLowPrices(validSeries),
+                AnalysisTools.getHighPrices(validSeries),
+                AnalysisTools.getVolume(validSeries),
+                AnalysisBaseFunctions.sma(closingPrices, 100),
+                AnalysisTools.getDates(validSeries),
+                validSeries.indexOfDay(DateTimeUtils.toEpochDay(start))
+        );
+    }
+
+    public int size() {
+        return validSeries.size();
+    }
+}
@@ -2,14 +2,15 @@ package com.financialanalysis.strategy;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
 import com.financialanalysis.analysis.AnalysisFunctions;
+import com.financialanalysis.analysis.ExtremaIndex;
+import com.financialanalysis.analysis.RunningRegression;
 import com.financialanalysis.data.Action;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
-import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.data.Trend;
 import com.financialanalysis.graphing.StockChart;
 import com.financialanalysis.graphing.Line;
-import com.financialanalysis.graphing.Point;
 import com.financialanalysis.data.Account;
 import com.google.common.collect.Lists;
 import lombok.Data;
@@ -19,9 +20,7 @@ import org.apache.commons.math3.stat.regression.SimpleRegression;
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -32,7 +31,7 @@ import static com.financialanalysis.workflow.Main.*;
 @Log4j
 public class FlagStrategy {
     //Not configurable
-    private static final int MIN_DATA_POINTS = 50;
+    public static final int MIN_DATA_POINTS = 50;
 
     private double[] closingPrices;
     private double[] openPrices;
@@ -43,31 +42,99 @@ public class FlagStrategy {
     private double[] pvoSignal;
     private double[] pvoHist;
     private double[] sma;
+    private int tradeFrom;
     private double[] zigzag;
-    private List<StockPrice> validStockPrice;
+    private ExtremaIndex maxima;
+    private ExtremaIndex minima;
+    private final RunningRegression topRegression = new RunningRegression();
+    private final RunningRegression botRegression = new RunningRegression();
+    private final RunningRegression poleRegression = new RunningRegression();
+    private PriceSeries validSeries;
     private List<DateTime> dates;
     private FlagConfig config;
 
     @SneakyThrows
     public StrategyOutput runStrategy(FlagStrategyInput input) {
         StockFA stock = input.getStock();
-        Symbol symbol = input.getStock().getSymbol();
+        FlagSeries series = FlagSeries.of(stock.getSymbol(), stock.getPriceSeries(), input.getStartDate(), input.getEndDate());
 
-        validStockPrice = getValidStockPrices(stock.getHistory(), input.getStartDate(), input.getEndDate());
+        if(runStrategies) {
+            return findTodaysFlag(series, input.getConfig());
+        }
+
+        if(backtest) {
+            return backtest(series, input.getConfig());
+        }
+
+        return emptyOutput(series.getSymbol());
+    }
+
+    /**
+     * Find a flag for the most recent day of the series
+     */
+    public StrategyOutput findTodaysFlag(FlagSeries series, FlagConfig config) {
+        Symbol symbol = series.getSymbol();
+        if(!prepare(series, config)) {
+            return emptyOutput(symbol);
+        }
+
+        Optional<Flag> flag = findFlagForDay(closingPrices.length - 1, symbol);
+        if(flag.isPresent()) {
+            log.info(symbol.getSymbol() + " has a flag.");
+            return new StrategyOutput(symbol, Account.createDefaultAccount(), Lists.newArrayList(flag.get().getFlagStockChart()), "Flag");
+        }
+
+        return emptyOutput(symbol);
+    }
 
-        if(validStockPrice.isEmpty() || validStockPrice.size() < MIN_DATA_POINTS) {
-            return new StrategyOutput(symbol, Account.createDefaultAccount(), new ArrayList<>(), "Flag");
+    /**
+     * Find every flag in the series and trade on them. Does not look at the run mode flags in Main,
+     * so it can be called for any config, see FlagConfigOptimizer.
+     */
+    public StrategyOutput backtest(FlagSeries series, FlagConfig config) {
+        Symbol symbol = series.getSymbol();
+        if(!prepare(series, config)) {
+            return emptyOutput(symbol);
         }
 
-        config = input.getConfig();
+        // Find the flags
+        List<Flag> flagPatterns = findFlagPatterns(symbol);
+
+        // Given these flags, buy and sell on them
+        FlagsAndAccount flagsAndAccount = determineLongPositions(flagPatterns, symbol);
+
+        List<Action> activity = flagsAndAccount.getAccount().getActivity();
+        // If this stock generated a buy signal, then lets report it
+        if(activity.size() > 0) {
+            List<StockChart> flagCharts = flagsAndAccount.getFlags().stream().map(f -> f.getFlagStockChart()).collect(Collectors.toList());
+            log.debug(symbol.getSymbol() + " found " + activity.size() + " transactions.");
+
+            return new StrategyOutput(symbol, flagsAndAccount.getAccount(), flagCharts, "Flag");
+        }
 
-        closingPrices = getClosingPrices(validStockPrice);
-        openPrices = getOpenPrices(validStockPrice);
-        lowPrices = getLowPrices(validStockPrice);
-        highPrices = getHighPrices(validStockPrice);
-        volume = getVolume(validStockPrice);
-        dates = getDates(validStockPrice);
-        sma = sma(closingPrices, 100);
+        return emptyOutput(symbol);
+    }
+
+    /**
+     * Takes the shared arrays from the series and computes the config dependent ones.
+     * Returns false if there is not enough data to look for flags.
+     */
+    private boolean prepare(FlagSeries series, FlagConfig config) {
+        if(series.size() == 0 || series.size() < MIN_DATA_POINTS) {
+            return false;
+        }
+
+        this.config = config;
+
+        validSeries = series.getValidSeries();
+        closingPrices = series.getClosingPrices();
+        openPrices = series.getOpenPrices();
+        lowPrices = series.getLowPrices();
+        highPrices = series.getHighPrices();
+        volume = series.getVolume();
+        dates = series.getDates();
+        sma = series.getSma();
+        tradeFrom = series.getTradeFrom();
 
         AnalysisFunctionResult pvoResult = AnalysisFunctions.pvo(
                 volume,
@@ -83,43 +150,21 @@ public class FlagStrategy {
         );
         zigzag = zigzagResult.getZigzag();
 
-        if(runStrategies) {
-            // Find flag for most recent day
-            Optional<Flag> flag = findFlagForDay(closingPrices.length - 1, stock);
-            if(flag.isPresent()) {
-                log.info(symbol.getSymbol() + " has a flag.");
-                FlagsAndAccount flagsAndAccount = determineLongPositions(Lists.newArrayList(flag.get()), symbol);
+        maxima = ExtremaIndex.max(highPrices, config.getMaxExtremaLookBackPeriod(), config.getMaxExtremaLookForwardPeriod());
+        minima = ExtremaIndex.min(lowPrices, config.getMinExtremaLookBackPeriod(), config.getMinExtremaLookForwardPeriod());
 
+        return true;
+    }
 
-                return new StrategyOutput(symbol, Account.createDefaultAccount(), Lists.newArrayList(flag.get().getFlagStockChart()), "Flag");
-            }
-        }
-
-        if(backtest && !runStrategies) {
-            // Find the flags
-            List<Flag> flagPatterns = findFlagPatterns(stock);
-
-            // Given these flags, buy and sell on them
-            FlagsAndAccount flagsAndAccount = determineLongPositions(flagPatterns, symbol);
-
-            List<Action> activity = flagsAndAccount.getAccount().getActivity();
-            // If this stock generated a buy signal, then lets report it
-            if(activity.size() > 0) {
-                List<StockChart> flagCharts = flagsAndAccount.getFlags().stream().map(f -> f.getFlagStockChart()).collect(Collectors.toList());
-                log.info(stock.getSymbol().getSymbol() + " found " + activity.size() + " transactions.");
-
-                return new StrategyOutput(symbol, flagsAndAccount.getAccount(), flagCharts, "Flag");
-            }
-        }
-
+    private StrategyOutput emptyOutput(Symbol symbol) {
         return new StrategyOutput(symbol, Account.createDefaultAccount(), new ArrayList<>(), "Flag");
     }
 
     @SneakyThrows
-    private List<Flag> findFlagPatterns(StockFA stock) {
+    private List<Flag> findFlagPatterns(Symbol symbol) {
         List<Flag> flagPatterns = Lists.newArrayList();
-        for(int i = closingPrices.length - 1; i >= 0 && i >= MIN_DATA_POINTS; i--) {
-            Optional<Flag> flag = findFlagForDay(i, stock);
+        for(int i = closingPrices.length - 1; i >= 0 && i >= MIN_DATA_POINTS && i >= tradeFrom; i--) {
+            Optional<Flag> flag = findFlagForDay(i, symbol);
             if(flag.isPresent()) {
                 flagPatterns.add(flag.get());
             }
@@ -128,11 +173,11 @@ public class FlagStrategy {
         return Lists.reverse(flagPatterns);
     }
 
-    private Optional<Flag> findFlagForDay(int dayIndex, StockFA stock) {
+    private Optional<Flag> findFlagForDay(int dayIndex, Symbol symbol) {
         int i = dayIndex;
 
         // Determine the flag top first
-        FlagTop flagTop = findBestFlagTop(i, stock.getSymbol());
+        FlagTop flagTop = findBestFlagTop(i, symbol);
         Trend topTrend = flagTop.getTopTrend();
         Trend botTrend = flagTop.getBotTrend();
         int flagTopLength = flagTop.getFlagTopLength();
@@ -203,11 +248,11 @@ public class FlagStrategy {
         boolean sufficientMovement = determineIfSufficientMovement(i, startOfFlagPole);
 
         if(patternTrend && longTrend && profit && sufficientMovement) {
-            String info = String.format("%s_%s", stock.getSymbol(), dates.get(i).toString().split("T")[0]);
+            String info = String.format("%s_%s", symbol, dates.get(i).toString().split("T")[0]);
             StockChart stockChart = new StockChart("Flag_" + info);
             stockChart.setYAxis("Price");
             stockChart.setXAxis("Date");
-            stockChart.addCandles(validStockPrice);
+            stockChart.addCandles(validSeries.asList());
             stockChart.addVolume(dates, volume);
             stockChart.addXYLine(
                     dates,
@@ -479,66 +524,89 @@ public class FlagStrategy {
 
     /**
      * Will find the best possible flagTop within a range looking backward starting at
-     * startIndex
+     * startIndex. Each longer flag top only adds the extrema before the previous one, so the
+     * lengths are compared on running regressions and the trends are built for the best one.
      */
     private FlagTop findBestFlagTop(int startIndex, Symbol symbol) {
-        Map<Integer, Point> max = max(
-                Arrays.copyOfRange(highPrices, 0, startIndex + 1),
-                config.getMaxExtremaLookBackPeriod(),
-                config.getMaxExtremaLookForwardPeriod()
-                );
-
-        Map<Integer, Point> min = min(
-                Arrays.copyOfRange(lowPrices, 0, startIndex + 1),
-                config.getMinExtremaLookBackPeriod(),
-                config.getMinExtremaLookForwardPeriod()
-        );
-
-        Trend top = findTrend(max, startIndex, config.getMinFlagTopLen(), dates, symbol);
-        Trend bot = findTrend(min, startIndex, config.getMinFlagTopLen(), dates, symbol);
+        topRegression.clear();
+        botRegression.clear();
+        int nextTop = addExtrema(topRegression, maxima, maxima.floor(startIndex), startIndex, config.getMinFlagTopLen());
+        int nextBot = addExtrema(botRegression, minima, minima.floor(startIndex), startIndex, config.getMinFlagTopLen());
+        double topRSquare = topRegression.getRSquare();
+        double botRSquare = botRegression.getRSquare();
         int flagTopLength = config.getMinFlagTopLen();
         for(int i = config.getMinFlagTopLen() + 1; i <= config.getMaxFlagTopLen(); i++) {
-            Trend topTmp = findTrend(max, startIndex, i, dates, symbol);
-            Trend botTmp = findTrend(min, startIndex, i, dates, symbol);
-
-            if(Double.isNaN(top.getSimpleRegression().getRSquare()) || Double.isNaN(bot.getSimpleRegression().getRSquare())) {
-                top = topTmp;
-                bot = botTmp;
+            nextTop = addExtrema(topRegression, maxima, nextTop, startIndex, i);
+            nextBot = addExtrema(botRegression, minima, nextBot, startIndex, i);
+            double topTmp = topRegression.getRSquare();
+            double botTmp = botRegression.getRSquare();
+
+            if(Double.isNaN(topRSquare) || Double.isNaN(botRSquare)) {
+                topRSquare = topTmp;
+                botRSquare = botTmp;
                 flagTopLength = i;
-            } else if(topTmp.getSimpleRegression().getRSquare() > top.getSimpleRegression().getRSquare() &&
-                    botTmp.getSimpleRegression().getRSquare() > bot.getSimpleRegression().getRSquare()) {
-                top = topTmp;
-                bot = botTmp;
+            } else if(topTmp > topRSquare && botTmp > botRSquare) {
+                topRSquare = topTmp;
+                botRSquare = botTmp;
                 flagTopLength = i;
             }
         }
 
+        Trend top = findTrend(maxima, startIndex, flagTopLength, dates, symbol);
+        Trend bot = findTrend(minima, startIndex, flagTopLength, dates, symbol);
         FlagTop flagTop = new FlagTop(top, bot, flagTopLength, dates.get(startIndex - flagTopLength), dates.get(startIndex));
         return flagTop;
     }
 
+    /**
+     * Adds the extrema from the kth kept point back to startIndex - period, the same points findTrend
+     * would add. Returns the next point to look at for a longer period.
+     */
+    private int addExtrema(RunningRegression regression, ExtremaIndex extrema, int k, int startIndex, int period) {
+        for(; k >= 0 && extrema.positionAt(k) >= startIndex - period; k--) {
+            if(extrema.isExtremaUpTo(k, startIndex)) {
+                regression.addData(extrema.positionAt(k), extrema.valueAt(k));
+            }
+        }
+        return k;
+    }
+
     /**
      * Will find best possible flagPole within range looking backward starting at
-     * startIndex
+     * startIndex. Each longer pole extends the running regression of the shorter one, and the
+     * SimpleRegression is only built for the best length.
      */
     private FlagPole findBestFlagPole(int startIndex) {
-        SimpleRegression pole = null;
+        poleRegression.clear();
+        int next = startIndex;
+        boolean found = false;
+        double poleRSquare = Double.NaN;
+        long poleN = 0;
         int flagPoleLength = config.getMinFlagPoleLen();
         for(int i = config.getMinFlagPoleLen(); i <= config.getMaxFlagPoleLen(); i++) {
-            SimpleRegression tmp = getSR(startIndex, i);
+            for(; next >= 0 && next >= startIndex - i; next--) {
+                poleRegression.addData(next, closingPrices[next]);
+            }
+            double tmpRSquare = poleRegression.getRSquare();
+            long tmpN = poleRegression.getN();
 
-            if(pole == null) {
-                pole = tmp;
+            if(!found) {
+                found = true;
+                poleRSquare = tmpRSquare;
+                poleN = tmpN;
                 flagPoleLength = i;
-            } else if(Double.isNaN(pole.getRSquare())) {
-                pole = tmp;
+            } else if(Double.isNaN(poleRSquare)) {
+                poleRSquare = tmpRSquare;
+                poleN = tmpN;
                 flagPoleLength = i;
-            } else if(tmp.getN() > pole.getN() && tmp.getRSquare() > pole.getRSquare()) {
-                pole = tmp;
+            } else if(tmpN > poleN && tmpRSquare > poleRSquare) {
+                poleRSquare = tmpRSquare;
+                poleN = tmpN;
                 flagPoleLength = i;
             }
         }
 
+        SimpleRegression pole = found ? getSR(startIndex, flagPoleLength) : null;
         return new FlagPole(pole, flagPoleLength, dates.get(startIndex - flagPoleLength), dates.get(startIndex));
     }
 
@@ -1,9 +1,10 @@
 package com.financialanalysis.strategyV2;
 
-import com.financialanalysis.data.StockPrice;
-
-import java.util.List;
-
 public abstract class Entry {
-    public abstract EntryDecision getEntryDecision(List<StockPrice> stockPrices);
+    /**
+     * Creates the state for a single pass over one stock, reading indicators shared through the
+     * input's IndicatorCache. Entries themselves are shared between threads, so all per stock state
+     * must live in the stream.
+     */
+    public abstract EntryStream stream(StrategyInput input);
 }
@@ -1,10 +1,10 @@
 package com.financialanalysis.strategyV2;
 
-import com.financialanalysis.data.StockPrice;
-
-import java.util.List;
-
 public abstract class Exit {
-    public abstract boolean shouldExit(List<StockPrice> stockPrices);
-
+    /**
+     * Creates the state for a single pass over one stock, reading indicators shared through the
+     * input's IndicatorCache. Exits themselves are shared between threads, so all per stock state
+     * must live in the stream.
+     */
+    public abstract ExitStream stream(StrategyInput input);
 }
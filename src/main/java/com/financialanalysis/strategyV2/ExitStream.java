@@ -0,0 +1,12 @@
+package com.financialanalysis.strategyV2;
+
+/**
+ * Evaluation of an {@link Exit} over the days of one stock. Every day is pushed one at a time in
+ * chronological order from the first, and each update does a constant amount of work on state
+ * carried over from the days before. The decision is always for the most recently pushed day.
+ */
+public abstract class ExitStream {
+    public abstract void update(int i);
+
+    public abstract boolean shouldExit();
+}
@@ -0,0 +1,37 @@
+package com.financialanalysis.strategyV2;
+
+import com.financialanalysis.data.Symbol;
+import lombok.Data;
+
+/**
+ * The trades a strategy would make on one stock, without an account. Each entry day comes with
+ * the first exit day after it, so whoever holds the capital can decide which entries to take.
+ * Days are epoch days, see {@link com.financialanalysis.common.DateTimeUtils#toEpochDay(long)}.
+ */
+@Data
+public class SignalSeries {
+    public static final int NO_EXIT = Integer.MAX_VALUE;
+
+    private final Symbol symbol;
+    private final int[] entryDays;
+    private final double[] entryPrices;
+    private final double[] entryWeights;
+    // NO_EXIT if the strategy never exits after the entry
+    private final int[] exitDays;
+    private final double[] exitPrices;
+    // Last close of the series, for positions that never exit
+    private final int lastDay;
+    private final double lastClose;
+
+    public int size() {
+        return entryDays.length;
+    }
+
+    public boolean isEmpty() {
+        return entryDays.length == 0;
+    }
+
+    public static SignalSeries empty(Symbol symbol) {
+        return new SignalSeries(symbol, new int[0], new double[0], new double[0], new int[0], new double[0], 0, 0);
+    }
+}
@@ -1,21 +1,13 @@
 package com.financialanalysis.strategyV2;
 
-import com.beust.jcommander.internal.Lists;
 import com.financialanalysis.data.Account;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
-import com.financialanalysis.data.StockPrice;
-import com.financialanalysis.strategy.StrategyOutput;
 import lombok.extern.log4j.Log4j;
-import org.joda.time.DateTime;
 
-import java.util.List;
+import java.util.Arrays;
 import java.util.Optional;
 
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
-import static com.financialanalysis.analysis.AnalysisTools.getDates;
-import static com.financialanalysis.analysis.AnalysisTools.getHighPrices;
-import static com.financialanalysis.analysis.AnalysisTools.getLowPrices;
-
 @Log4j
 public abstract class Strategy {
     private final Entry entry;
@@ -32,39 +24,109 @@ public abstract class Strategy {
 
     public StrategyOutputV2 run(StrategyInput input) {
         StockFA stock = input.getStock();
-        if(stock.getHistory().size() < MIN_DATA_POINTS) {
+        PriceSeries series = input.getPriceSeries();
+        if(series.size() < MIN_DATA_POINTS) {
             return new StrategyOutputV2(stock.getSymbol(), Account.createDefaultAccount(), Optional.empty(), "S");
         }
 
         Account account = Account.createDefaultAccount();
-        double[] closingPrices = getClosingPrices(stock.getHistory());
-        List<DateTime> dates = getDates(stock.getHistory());
+
+        // Every day is visited so the streams that remember earlier days stay current, even on days we don't trade
+        EntryStream entryStream = entry.stream(input);
+        ExitStream exitStream = exit.stream(input);
 
         boolean bought = false;
-        for(int i = MIN_DATA_POINTS; i < stock.getHistory().size(); i++) {
-            List<StockPrice> upToDay = stock.getHistory().subList(0, i+1);
-            if(!haveSufficientMovement(upToDay)) {
-                continue;
+        for(int i = 0; i < series.size(); i++) {
+            entryStream.update(i);
+            exitStream.update(i);
+
+            if(i >= MIN_DATA_POINTS && haveSufficientMovement(series, i)) {
+                EntryDecision decision = entryStream.getEntryDecision();
+                double close = series.closeAt(i);
+
+                if(!bought && decision.isEntry()) {
+                    account.buyAll(close, series.dateAt(i), stock.getSymbol(), decision.getWeight());
+                    bought = true;
+                }else if(bought && exitStream.shouldExit()) {
+                    account.sellAll(close, series.dateAt(i), stock.getSymbol());
+                    bought = false;
+                }
+
+                account.rebalance(close);
             }
+        }
 
-            EntryDecision decision = entry.getEntryDecision(upToDay);
+        if(!account.getActivity().isEmpty()) {
+            log.info(stock.getSymbol() + " has activity");
+        }
 
-            if(!bought && decision.isEntry()) {
-                account.buyAll(closingPrices[i], dates.get(i), stock.getSymbol(), decision.getWeight());
-                bought = true;
-            }else if(bought && exit.shouldExit(upToDay)) {
-                account.sellAll(closingPrices[i], dates.get(i), stock.getSymbol());
-                bought = false;
-            }
+        return new StrategyOutputV2(stock.getSymbol(), account, Optional.of(chart.getChart(input, account)), "S");
+    }
 
-            account.rebalance(closingPrices[i]);
+    /**
+     * Same entry and exit rules as run, but for every day instead of only when the account
+     * is out or in. An exit only counts on a day after its entry, like in run.
+     */
+    public SignalSeries signals(StrategyInput input) {
+        StockFA stock = input.getStock();
+        PriceSeries series = input.getPriceSeries();
+        if(series.size() < MIN_DATA_POINTS) {
+            return SignalSeries.empty(stock.getSymbol());
         }
 
-        if(!account.getActivity().isEmpty()) {
-            log.info(stock.getSymbol() + " has activity");
+        EntryStream entryStream = entry.stream(input);
+        ExitStream exitStream = exit.stream(input);
+
+        int[] entries = new int[series.size()];
+        double[] weights = new double[series.size()];
+        boolean[] exits = new boolean[series.size()];
+        int numEntries = 0;
+        for(int i = 0; i < series.size(); i++) {
+            entryStream.update(i);
+            exitStream.update(i);
+
+            if(i >= MIN_DATA_POINTS && haveSufficientMovement(series, i)) {
+                EntryDecision decision = entryStream.getEntryDecision();
+                if(decision.isEntry()) {
+                    entries[numEntries] = i;
+                    weights[numEntries] = decision.getWeight();
+                    numEntries++;
+                }
+                exits[i] = exitStream.shouldExit();
+            }
         }
 
-        return new StrategyOutputV2(stock.getSymbol(), account, Optional.of(chart.getChart(stock, account)), "S");
+        int[] entryDays = new int[numEntries];
+        double[] entryPrices = new double[numEntries];
+        int[] exitDays = new int[numEntries];
+        double[] exitPrices = new double[numEntries];
+        // Walk back so the next exit after each day is known when its entry is reached
+        int nextExit = -1;
+        int k = numEntries - 1;
+        for(int i = series.size() - 1; i >= 0 && k >= 0; i--) {
+            while(k >= 0 && entries[k] == i) {
+                entryDays[k] = series.epochDayAt(i);
+                entryPrices[k] = series.closeAt(i);
+                exitDays[k] = nextExit < 0 ? SignalSeries.NO_EXIT : series.epochDayAt(nextExit);
+                exitPrices[k] = nextExit < 0 ? 0 : series.closeAt(nextExit);
+                k--;
+            }
+            if(exits[i]) {
+                nextExit = i;
+            }
+        }
+
+        int last = series.size() - 1;
+        return new SignalSeries(
+                stock.getSymbol(),
+                entryDays,
+                entryPrices,
+                Arrays.copyOf(weights, numEntries),
+                exitDays,
+                exitPrices,
+                series.epochDayAt(last),
+                series.closeAt(last)
+        );
     }
 
     /**
@@ -72,17 +134,12 @@ public abstract class Strategy {
      * 1) Closing prices must not be all the same
      * 2) Low and High prices must be different
      */
-    private boolean haveSufficientMovement(List<StockPrice> upToDay) {
-        double[] closingPrices = getClosingPrices(upToDay);
-        double[] lowPrices = getLowPrices(upToDay);
-        double[] highPrices = getHighPrices(upToDay);
-
-        int startIndex = closingPrices.length - 1;
+    private boolean haveSufficientMovement(PriceSeries series, int startIndex) {
         int inSufficientMovementCount1 = 0;
         int inSufficientMovementCount2 = 0;
         for(int i = startIndex; i > startIndex - 5; i--) {
-            boolean inSufficientMovement1 = closingPrices[i] == closingPrices[i- 1];
-            boolean inSufficientMovement2 = lowPrices[i] == highPrices[i];
+            boolean inSufficientMovement1 = series.closeAt(i) == series.closeAt(i- 1);
+            boolean inSufficientMovement2 = series.lowAt(i) == series.highAt(i);
 
             if(inSufficientMovement1) {
                 inSufficientMovementCount1++;
@@ -1,9 +1,36 @@
 package com.financialanalysis.strategyV2;
 
+import com.financialanalysis.analysis.DefaultIndicatorProvider;
+import com.financialanalysis.analysis.IndicatorCache;
+import com.financialanalysis.analysis.IndicatorProvider;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
 import lombok.Data;
 
 @Data
 public class StrategyInput {
     private final StockFA stock;
+    // Shared by every strategy run on this input, and dropped with it
+    private final IndicatorCache indicators;
+
+    public StrategyInput(StockFA stock, IndicatorProvider provider) {
+        this.stock = stock;
+        this.indicators = new IndicatorCache(provider, stock.getPriceSeries());
+    }
+
+    /**
+     * Input with the indicators of the {@link DefaultIndicatorProvider}
+     */
+    public StrategyInput(StockFA stock) {
+        this(stock, new DefaultIndicatorProvider());
+    }
+
+    public StrategyInput(Symbol symbol, PriceSeries priceSeries) {
+        this(new StockFA(symbol, priceSeries));
+    }
+
+    public PriceSeries getPriceSeries() {
+        return stock.getPriceSeries();
+    }
 }
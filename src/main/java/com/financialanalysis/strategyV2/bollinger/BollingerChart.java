@@ -1,18 +1,18 @@
 package com.financialanalysis.strategyV2.bollinger;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
+import com.financialanalysis.analysis.IndicatorCache;
 import com.financialanalysis.data.Account;
 import com.financialanalysis.data.Action;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.graphing.StockChart;
 import com.financialanalysis.strategyV2.Chart;
+import com.financialanalysis.strategyV2.StrategyInput;
 import org.joda.time.DateTime;
 
 import java.util.List;
 
-import static com.financialanalysis.analysis.AnalysisBaseFunctions.sma;
-import static com.financialanalysis.analysis.AnalysisFunctions.bollingerBands;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
 import static com.financialanalysis.analysis.AnalysisTools.getDates;
 import static com.financialanalysis.analysis.AnalysisTools.getVolume;
 
@@ -20,13 +20,16 @@ public class BollingerChart extends Chart {
     private static final int BB_PERIOD = 21;
 
     @Override
-    public StockChart getChart(StockFA stock, Account account) {
-        List<DateTime> dates = getDates(stock.getHistory());
-        double[] volume = getVolume(stock.getHistory());
-        double[] closingPrices = getClosingPrices(stock.getHistory());
-        double[] sma100 = sma(closingPrices, 100);
-
-        AnalysisFunctionResult result = bollingerBands(closingPrices, BB_PERIOD);
+    public StockChart getChart(StrategyInput input, Account account) {
+        StockFA stock = input.getStock();
+        IndicatorCache indicators = input.getIndicators();
+        PriceSeries series = stock.getPriceSeries();
+        List<DateTime> dates = getDates(series);
+        double[] volume = getVolume(series);
+        double[] closingPrices = indicators.closingPrices();
+        double[] sma100 = indicators.sma(100);
+
+        AnalysisFunctionResult result = indicators.bollingerBands(BB_PERIOD);
         double[] high = result.getBbHigh();
         double[] mid = result.getBbMid();
         double[] low = result.getBbLow();
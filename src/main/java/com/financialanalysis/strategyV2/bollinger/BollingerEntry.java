@@ -1,58 +1,64 @@
 package com.financialanalysis.strategyV2.bollinger;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
-import com.financialanalysis.data.StockPrice;
+import com.financialanalysis.analysis.IndicatorCache;
 import com.financialanalysis.strategyV2.Entry;
 import com.financialanalysis.strategyV2.EntryDecision;
+import com.financialanalysis.strategyV2.EntryStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 
-import java.util.List;
-
-import static com.financialanalysis.analysis.AnalysisFunctions.bollingerBands;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
-import static com.financialanalysis.analysis.AnalysisBaseFunctions.sma;
-
 public class BollingerEntry extends Entry {
     private static final int BB_PERIOD = 21;
 
     @Override
-    public EntryDecision getEntryDecision(List<StockPrice> stockPrices) {
-        double[] closingPrices = getClosingPrices(stockPrices);
-        AnalysisFunctionResult result = bollingerBands(closingPrices, BB_PERIOD);
-        double[] high = result.getBbHigh();
-        double[] mid = result.getBbMid();
-        double[] low = result.getBbLow();
-        double[] sma100 = sma(closingPrices, 100);
+    public EntryStream stream(StrategyInput input) {
+        IndicatorCache indicators = input.getIndicators();
+        return new BollingerEntryStream(indicators.closingPrices(), indicators.bollingerBands(BB_PERIOD), indicators.sma(100));
+    }
 
-        int startIndex = closingPrices.length - 1;
-        double weight = getWeight(high, mid, low);
+    private static class BollingerEntryStream extends EntryStream {
+        private final double[] close;
+        private final double[] bbHigh;
+        private final double[] bbMid;
+        private final double[] bbLow;
+        private final double[] sma100;
+        private int i;
 
-        /**
-         * Buy if
-         * 1) Hit the low mark
-         * 2) Move up through mid mark
-         */
+        BollingerEntryStream(double[] close, AnalysisFunctionResult bands, double[] sma100) {
+            this.close = close;
+            this.bbHigh = bands.getBbHigh();
+            this.bbMid = bands.getBbMid();
+            this.bbLow = bands.getBbLow();
+            this.sma100 = sma100;
+        }
 
-        if(closingPrices[startIndex] <= low[startIndex] && closingPrices[startIndex] > sma100[startIndex]) {
-            return new EntryDecision(true, weight);
+        @Override
+        public void update(int i) {
+            this.i = i;
         }
 
-//        if(closingPrices[startIndex] >= mid[startIndex]) {
-//            for(int i = startIndex; i > startIndex - 4; i--) {
-//                if(closingPrices[i] <= low[i]) {
-//                    return new EntryDecision(true, weight);
-//                }
-//            }
-//        }
+        @Override
+        public EntryDecision getEntryDecision() {
+            double weight = getWeight(bbHigh[i], bbMid[i], bbLow[i]);
 
-        return new EntryDecision(false, weight);
-    }
+            /**
+             * Buy if
+             * 1) Hit the low mark
+             * 2) Move up through mid mark
+             */
+
+            if(close[i] <= bbLow[i] && close[i] > sma100[i]) {
+                return new EntryDecision(true, weight);
+            }
 
-    private double getWeight(double[] high, double[] mid, double[] low) {
-        int i = high.length - 1;
+            return new EntryDecision(false, weight);
+        }
+    }
 
-        double highP = high[i] / mid[i] * 100;
-        double lowP = low[i] / mid[i] * 100;
+    private static double getWeight(double high, double mid, double low) {
+        double highP = high / mid * 100;
+        double lowP = low / mid * 100;
 
         return highP - lowP;
     }
@@ -1,39 +1,47 @@
 package com.financialanalysis.strategyV2.bollinger;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
-import com.financialanalysis.data.StockPrice;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.strategyV2.Exit;
-
-import java.util.List;
-
-import static com.financialanalysis.analysis.AnalysisFunctions.bollingerBands;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
-import static com.financialanalysis.analysis.AnalysisTools.getHighPrices;
+import com.financialanalysis.strategyV2.ExitStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 
 public class BollingerExit extends Exit {
     private static final int BB_PERIOD = 21;
 
     @Override
-    public boolean shouldExit(List<StockPrice> stockPrices) {
-        double[] closingPrices = getClosingPrices(stockPrices);
-        double[] highPrices = getHighPrices(stockPrices);
-        AnalysisFunctionResult result = bollingerBands(closingPrices, BB_PERIOD);
-        double[] high = result.getBbHigh();
-        double[] mid = result.getBbMid();
-        double[] low = result.getBbLow();
-
-        int i = closingPrices.length - 1;
-
-        // If we hit our high target
-        if(highPrices[i] >= high[i]) {
-            return true;
+    public ExitStream stream(StrategyInput input) {
+        return new BollingerExitStream(input.getPriceSeries(), input.getIndicators().bollingerBands(BB_PERIOD));
+    }
+
+    private static class BollingerExitStream extends ExitStream {
+        private final PriceSeries series;
+        private final double[] bbHigh;
+        private final double[] bbLow;
+
+        private boolean hitHigh;
+        private boolean closedBelowLow;
+        // Whether the day before closed below the low target
+        private boolean closedBelowLowBefore;
+
+        BollingerExitStream(PriceSeries series, AnalysisFunctionResult bands) {
+            this.series = series;
+            this.bbHigh = bands.getBbHigh();
+            this.bbLow = bands.getBbLow();
         }
 
-        // If for that past 2 days, we have closed below the low target
-        if(closingPrices[i] <= low[i] && closingPrices[i-1] <= low[i-1]) {
-            return true;
+        @Override
+        public void update(int i) {
+            closedBelowLowBefore = closedBelowLow;
+            hitHigh = series.highAt(i) >= bbHigh[i];
+            closedBelowLow = series.closeAt(i) <= bbLow[i];
         }
 
-        return false;
+        @Override
+        public boolean shouldExit() {
+            // If we hit our high target
+            // Or if for that past 2 days, we have closed below the low target
+            return hitHigh || closedBelowLow && closedBelowLowBefore;
+        }
     }
 }
@@ -1,20 +1,20 @@
 package com.financialanalysis.strategyV2.bollingermacd;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
+import com.financialanalysis.analysis.IndicatorCache;
 import com.financialanalysis.data.Account;
 import com.financialanalysis.data.Action;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.graphing.StockChart;
 import com.financialanalysis.strategyV2.Chart;
+import com.financialanalysis.strategyV2.StrategyInput;
 import org.joda.time.DateTime;
 
 import java.util.List;
 
-import static com.financialanalysis.analysis.AnalysisFunctions.bollingerBands;
-import static com.financialanalysis.analysis.AnalysisFunctions.macd;
 import static com.financialanalysis.analysis.AnalysisTools.addConst;
 import static com.financialanalysis.analysis.AnalysisTools.ave;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
 import static com.financialanalysis.analysis.AnalysisTools.getDates;
 import static com.financialanalysis.analysis.AnalysisTools.getVolume;
 import static com.financialanalysis.analysis.AnalysisTools.max;
@@ -29,22 +29,25 @@ public class BollingerMacdChart extends Chart {
     private final static int DEFAULT_SIGNAL_PERIOD = 9;
 
     @Override
-    public StockChart getChart(StockFA stock, Account account) {
-        List<DateTime> dates = getDates(stock.getHistory());
-        double[] volume = getVolume(stock.getHistory());
-        double[] closingPrices = getClosingPrices(stock.getHistory());
+    public StockChart getChart(StrategyInput input, Account account) {
+        StockFA stock = input.getStock();
+        IndicatorCache indicators = input.getIndicators();
+        PriceSeries series = stock.getPriceSeries();
+        List<DateTime> dates = getDates(series);
+        double[] volume = getVolume(series);
+        double[] closingPrices = indicators.closingPrices();
         double min = min(closingPrices);
         double max = max(closingPrices);
         double ave = ave(closingPrices);
         double[] aveA = new double[closingPrices.length];
         for(int i = 0; i < aveA.length; i++) {aveA[i] = ave;}
 
-        AnalysisFunctionResult result = bollingerBands(closingPrices, BB_PERIOD);
+        AnalysisFunctionResult result = indicators.bollingerBands(BB_PERIOD);
         double[] high = result.getBbHigh();
         double[] mid = result.getBbMid();
         double[] low = result.getBbLow();
 
-        AnalysisFunctionResult results = macd(closingPrices, DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
+        AnalysisFunctionResult results = indicators.macd(DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
         double[] macd = addConst(mult(results.getMacd(), 2.0), ave);
         double[] macdSignal = addConst(mult(results.getMacdSignal(), 2.0), ave);
 
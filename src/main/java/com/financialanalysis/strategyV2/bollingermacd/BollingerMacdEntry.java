@@ -1,35 +1,73 @@
 package com.financialanalysis.strategyV2.bollingermacd;
 
-import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.strategyV2.Entry;
 import com.financialanalysis.strategyV2.EntryDecision;
+import com.financialanalysis.strategyV2.EntryStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 import com.financialanalysis.strategyV2.bollinger.BollingerEntry;
 import com.financialanalysis.strategyV2.macd.MacdEntry;
+import com.google.inject.Inject;
 import lombok.extern.log4j.Log4j;
 
-import java.util.List;
-
 @Log4j
 public class BollingerMacdEntry extends Entry {
+    // Both signals must have fired within this many days of each other
+    private static final int LOOK_BACK = 3;
+
+    private final MacdEntry macdEntry;
+    private final BollingerEntry bollingerEntry;
+
+    @Inject
+    public BollingerMacdEntry(MacdEntry macdEntry, BollingerEntry bollingerEntry) {
+        this.macdEntry = macdEntry;
+        this.bollingerEntry = bollingerEntry;
+    }
+
     @Override
-    public EntryDecision getEntryDecision(List<StockPrice> stockPrices) {
-        MacdEntry macdEntry = new MacdEntry();
-        BollingerEntry bollingerEntry = new BollingerEntry();
+    public EntryStream stream(StrategyInput input) {
+        return new BollingerMacdEntryStream(macdEntry.stream(input), bollingerEntry.stream(input));
+    }
+
+    private static class BollingerMacdEntryStream extends EntryStream {
+        private final EntryStream macd;
+        private final EntryStream bollinger;
 
-        for(int i = 0; i < 3; i++) {
-            List<StockPrice> upToA = stockPrices.subList(0, stockPrices.size() - i);
-            EntryDecision macd = macdEntry.getEntryDecision(upToA);
+        // Decisions for the last LOOK_BACK days, indexed by day % LOOK_BACK
+        private final boolean[] macdEntries = new boolean[LOOK_BACK];
+        private final boolean[] bollingerEntries = new boolean[LOOK_BACK];
+        private int day = 0;
 
-            for(int j = 0; j < 3; j++) {
-                List<StockPrice> upToB = stockPrices.subList(0, stockPrices.size() - j);
-                EntryDecision bollinger = bollingerEntry.getEntryDecision(upToB);
+        BollingerMacdEntryStream(EntryStream macd, EntryStream bollinger) {
+            this.macd = macd;
+            this.bollinger = bollinger;
+        }
+
+        @Override
+        public void update(int i) {
+            macd.update(i);
+            bollinger.update(i);
+
+            // The sub decisions look at the previous day, so they are only valid from the second day on
+            int slot = day % LOOK_BACK;
+            macdEntries[slot] = day > 0 && macd.getEntryDecision().isEntry();
+            bollingerEntries[slot] = day > 0 && bollinger.getEntryDecision().isEntry();
+            day++;
+        }
 
-                if(macd.isEntry() && bollinger.isEntry()) {
-                    return new EntryDecision(true, 1.0);
-                }
+        @Override
+        public EntryDecision getEntryDecision() {
+            if(any(macdEntries) && any(bollingerEntries)) {
+                return new EntryDecision(true, 1.0);
             }
+
+            return new EntryDecision(false, 0.0);
         }
 
-        return new EntryDecision(false, 0.0);
+        private static boolean any(boolean[] entries) {
+            for(boolean entry : entries) {
+                if(entry) return true;
+            }
+            return false;
+        }
     }
 }
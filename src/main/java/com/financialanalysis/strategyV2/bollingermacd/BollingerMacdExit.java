@@ -1,31 +1,40 @@
 package com.financialanalysis.strategyV2.bollingermacd;
 
-import com.financialanalysis.analysis.AnalysisFunctionResult;
-import com.financialanalysis.data.StockPrice;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.strategyV2.Exit;
-
-import java.util.List;
-
-import static com.financialanalysis.analysis.AnalysisFunctions.bollingerBands;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import com.financialanalysis.strategyV2.ExitStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 
 public class BollingerMacdExit extends Exit {
     private static final int BB_PERIOD = 21;
 
     @Override
-    public boolean shouldExit(List<StockPrice> stockPrices) {
-        double[] closingPrices = getClosingPrices(stockPrices);
-        AnalysisFunctionResult result = bollingerBands(closingPrices, BB_PERIOD);
-        double[] high = result.getBbHigh();
-        double[] mid = result.getBbMid();
-        double[] low = result.getBbLow();
+    public ExitStream stream(StrategyInput input) {
+        return new BollingerMacdExitStream(input.getPriceSeries(), input.getIndicators().bollingerBands(BB_PERIOD).getBbHigh());
+    }
 
-        int i = closingPrices.length - 1;
+    private static class BollingerMacdExitStream extends ExitStream {
+        private final PriceSeries series;
+        private final double[] bbHigh;
+        private int i;
 
-        if(closingPrices[i] >= high[i]) {
-            return true;
+        BollingerMacdExitStream(PriceSeries series, double[] bbHigh) {
+            this.series = series;
+            this.bbHigh = bbHigh;
         }
 
-        return false;
+        @Override
+        public void update(int i) {
+            this.i = i;
+        }
+
+        @Override
+        public boolean shouldExit() {
+            if(series.closeAt(i) >= bbHigh[i]) {
+                return true;
+            }
+
+            return false;
+        }
     }
 }
@@ -1,18 +1,19 @@
 package com.financialanalysis.strategyV2.macd;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
+import com.financialanalysis.analysis.IndicatorCache;
 import com.financialanalysis.data.Account;
 import com.financialanalysis.data.Action;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.graphing.StockChart;
 import com.financialanalysis.strategyV2.Chart;
+import com.financialanalysis.strategyV2.StrategyInput;
 import lombok.extern.log4j.Log4j;
 import org.joda.time.DateTime;
 
 import java.util.List;
 
-import static com.financialanalysis.analysis.AnalysisFunctions.macd;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
 import static com.financialanalysis.analysis.AnalysisTools.getDates;
 import static com.financialanalysis.analysis.AnalysisTools.getVolume;
 import static com.financialanalysis.analysis.AnalysisTools.ave;
@@ -25,13 +26,16 @@ public class MacdChart extends Chart {
     private final static int DEFAULT_SIGNAL_PERIOD = 9;
 
     @Override
-    public StockChart getChart(StockFA stock, Account account) {
-        List<DateTime> dates = getDates(stock.getHistory());
-        double[] volume = getVolume(stock.getHistory());
-        double[] closingPrices = getClosingPrices(stock.getHistory());
+    public StockChart getChart(StrategyInput input, Account account) {
+        StockFA stock = input.getStock();
+        IndicatorCache indicators = input.getIndicators();
+        PriceSeries series = stock.getPriceSeries();
+        List<DateTime> dates = getDates(series);
+        double[] volume = getVolume(series);
+        double[] closingPrices = indicators.closingPrices();
         double ave = ave(closingPrices);
 
-        AnalysisFunctionResult results = macd(closingPrices, DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
+        AnalysisFunctionResult results = indicators.macd(DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
         double[] macd = addConst(results.getMacd(), ave);
         double[] macdSignal = addConst(results.getMacdSignal(), ave);
 
@@ -1,16 +1,12 @@
 package com.financialanalysis.strategyV2.macd;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
-import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.strategyV2.Entry;
 import com.financialanalysis.strategyV2.EntryDecision;
+import com.financialanalysis.strategyV2.EntryStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 import lombok.extern.log4j.Log4j;
 
-import java.util.List;
-
-import static com.financialanalysis.analysis.AnalysisFunctions.macd;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
-
 @Log4j
 public class MacdEntry extends Entry {
     private final static int DEFAULT_FAST_PERIOD = 12;
@@ -18,25 +14,42 @@ public class MacdEntry extends Entry {
     private final static int DEFAULT_SIGNAL_PERIOD = 9;
 
     @Override
-    public EntryDecision getEntryDecision(List<StockPrice> stockPrices) {
-        double[] closingPrices = getClosingPrices(stockPrices);
-        AnalysisFunctionResult results = macd(closingPrices, DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
-        double[] macd = results.getMacd();
-        double[] macdSignal = results.getMacdSignal();
-        double[] macdHist = results.getMacdHist();
-
-        int i = macd.length - 1;
-        double weight = getWeight(macd, macdSignal, macdHist);
-
-        if((macd[i-1] < macdSignal[i-1]) && (macd[i] > macdSignal[i]) && macd[i] < -2.0) {
-            return new EntryDecision(true, weight);
+    public EntryStream stream(StrategyInput input) {
+        return new MacdEntryStream(input.getIndicators().macd(DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD));
+    }
+
+    private static class MacdEntryStream extends EntryStream {
+        private final double[] macd;
+        private final double[] macdSignal;
+        private final double[] macdHist;
+        private int i;
+
+        // Whether the line was below the signal the day before, false before the first day
+        private boolean wasBelow;
+        private boolean crossedAbove;
+
+        MacdEntryStream(AnalysisFunctionResult result) {
+            this.macd = result.getMacd();
+            this.macdSignal = result.getMacdSignal();
+            this.macdHist = result.getMacdHist();
         }
 
-        return new EntryDecision(false, weight);
-    }
+        @Override
+        public void update(int i) {
+            this.i = i;
+            crossedAbove = wasBelow && macd[i] > macdSignal[i];
+            wasBelow = macd[i] < macdSignal[i];
+        }
+
+        @Override
+        public EntryDecision getEntryDecision() {
+            double weight = Math.abs(macdHist[i]);
 
-    private double getWeight(double[] macd, double[] macdSignal, double[] macdHist) {
-        int i = macd.length - 1;
-        return Math.abs(macdHist[i]);
+            if(crossedAbove && macd[i] < -2.0) {
+                return new EntryDecision(true, weight);
+            }
+
+            return new EntryDecision(false, weight);
+        }
     }
 }
@@ -1,13 +1,9 @@
 package com.financialanalysis.strategyV2.macd;
 
 import com.financialanalysis.analysis.AnalysisFunctionResult;
-import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.strategyV2.Exit;
-
-import java.util.List;
-
-import static com.financialanalysis.analysis.AnalysisFunctions.macd;
-import static com.financialanalysis.analysis.AnalysisTools.getClosingPrices;
+import com.financialanalysis.strategyV2.ExitStream;
+import com.financialanalysis.strategyV2.StrategyInput;
 
 public class MacdExit extends Exit {
     private final static int DEFAULT_FAST_PERIOD = 12;
@@ -15,19 +11,32 @@ public class MacdExit extends Exit {
     private final static int DEFAULT_SIGNAL_PERIOD = 9;
 
     @Override
-    public boolean shouldExit(List<StockPrice> stockPrices) {
-        double[] closingPrices = getClosingPrices(stockPrices);
-        AnalysisFunctionResult results = macd(closingPrices, DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD);
-        double[] macd = results.getMacd();
-        double[] macdSignal = results.getMacdSignal();
-        double[] macdHist = results.getMacdHist();
+    public ExitStream stream(StrategyInput input) {
+        return new MacdExitStream(input.getIndicators().macd(DEFAULT_FAST_PERIOD, DEFAULT_SLOW_PERIOD, DEFAULT_SIGNAL_PERIOD));
+    }
+
+    private static class MacdExitStream extends ExitStream {
+        private final double[] macd;
+        private final double[] macdSignal;
 
-        int i = macd.length - 1;
+        // Whether the line was above the signal the day before, false before the first day
+        private boolean wasAbove;
+        private boolean crossedBelow;
 
-        if((macd[i-1] > macdSignal[i-1]) && (macd[i] < macdSignal[i])) {
-            return true;
+        MacdExitStream(AnalysisFunctionResult result) {
+            this.macd = result.getMacd();
+            this.macdSignal = result.getMacdSignal();
         }
 
-        return false;
+        @Override
+        public void update(int i) {
+            crossedBelow = wasAbove && macd[i] < macdSignal[i];
+            wasAbove = macd[i] > macdSignal[i];
+        }
+
+        @Override
+        public boolean shouldExit() {
+            return crossedBelow;
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.financialanalysis.updater;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Limits requests in flight, and shrinks that limit when the server pushes back.
+ *
+ * Every throttled response halves the limit and pauses new requests for a backoff that doubles
+ * each time, up to MAX_BACKOFF_MS. Every success raises the limit by one, back up to maxInFlight,
+ * and resets the backoff.
+ */
+@Log4j
+public class AdaptiveLimiter {
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    private final int maxInFlight;
+    private int limit;
+    private int inFlight = 0;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    private long resumeAt = 0;
+
+    public AdaptiveLimiter(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.limit = this.maxInFlight;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while(true) {
+            long wait = resumeAt - System.currentTimeMillis();
+            if(wait > 0) {
+                wait(wait);
+            } else if(inFlight >= limit) {
+                wait();
+            } else {
+                break;
+            }
+        }
+        inFlight++;
+    }
+
+    public synchronized void onSuccess() {
+        inFlight--;
+        limit = Math.min(maxInFlight, limit + 1);
+        backoffMs = INITIAL_BACKOFF_MS;
+        notifyAll();
+    }
+
+    public synchronized void onThrottled() {
+        inFlight--;
+        limit = Math.max(1, limit / 2);
+        resumeAt = Math.max(resumeAt, System.currentTimeMillis() + backoffMs);
+        log.info(String.format("Throttled, backing off %d ms with %d in flight", backoffMs, limit));
+        backoffMs = Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+        notifyAll();
+    }
+
+    /**
+     * The request failed for a reason that says nothing about load
+     */
+    public synchronized void onFailure() {
+        inFlight--;
+        notifyAll();
+    }
+}
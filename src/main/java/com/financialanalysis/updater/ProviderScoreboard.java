@@ -0,0 +1,72 @@
+package com.financialanalysis.updater;
+
+import java.util.Arrays;
+
+/**
+ * Rolling record of the last WINDOW pulls from one data provider: how long each took and whether it
+ * worked. Shared by every thread pulling stocks.
+ */
+public class ProviderScoreboard {
+    private static final int WINDOW = 100;
+
+    private final String name;
+    private final long[] millis = new long[WINDOW];
+    private final boolean[] failed = new boolean[WINDOW];
+    private int next;
+    private int samples;
+
+    public ProviderScoreboard(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long tookMillis, boolean failure) {
+        millis[next] = tookMillis;
+        failed[next] = failure;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(samples + 1, WINDOW);
+    }
+
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    public synchronized double getErrorRate() {
+        if(samples == 0) {
+            return 0;
+        }
+
+        int failures = 0;
+        for(int i = 0; i < samples; i++) {
+            if(failed[i]) failures++;
+        }
+        return (double) failures / samples;
+    }
+
+    /**
+     * Latency of successful pulls at percentile, between 0 and 1. -1 if nothing has succeeded yet.
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        long[] succeeded = new long[samples];
+        int count = 0;
+        for(int i = 0; i < samples; i++) {
+            if(!failed[i]) succeeded[count++] = millis[i];
+        }
+        if(count == 0) {
+            return -1;
+        }
+
+        Arrays.sort(succeeded, 0, count);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return succeeded[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d pulls, %.0f%% failed, p50 %d ms, p95 %d ms",
+                name, samples, 100 * getErrorRate(), getLatencyPercentile(0.5), getLatencyPercentile(0.95));
+    }
+}
@@ -1,5 +1,6 @@
 package com.financialanalysis.updater;
 
+import com.financialanalysis.common.DateTimeUtils;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
@@ -41,14 +42,17 @@ public class StockMerger {
         List<StockPrice> aHist = a.getHistory();
         List<StockPrice> bHist = b.getHistory();
 
-        for(StockPrice bSP : bHist) {
-            if(aHist.contains(bSP)) {
+        // Both are in order, so b can only overlap a if it starts on or before a's last day
+        if(!aHist.isEmpty() && !bHist.isEmpty()) {
+            int aLast = DateTimeUtils.toEpochDay(aHist.get(aHist.size() - 1).getDate());
+            int bFirst = DateTimeUtils.toEpochDay(bHist.get(0).getDate());
+            if(bFirst <= aLast) {
                 throw new RuntimeException("Found overlapping stocks while merge updates." +
                         "Seems like something is wrong with your mergeing");
             }
         }
 
-        List<StockPrice> hist = new ArrayList<>();
+        List<StockPrice> hist = new ArrayList<>(aHist.size() + bHist.size());
         hist.addAll(aHist);
         hist.addAll(bHist);
 
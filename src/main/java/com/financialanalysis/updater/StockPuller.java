@@ -1,15 +1,17 @@
 package com.financialanalysis.updater;
 
 import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.common.ProviderLimiter;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.questrade.HistoricDataGranularity;
 import com.financialanalysis.questrade.QuestradeImpl;
 import com.financialanalysis.questrade.response.Candle;
-import com.financialanalysis.questrade.response.MarketCandlesResponse;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Data;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j;
 import org.joda.time.DateTime;
@@ -24,17 +26,64 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+import static com.financialanalysis.workflow.Main.*;
+
 @Log4j
+@Singleton
 public class StockPuller {
-    private final QuestradeImpl questrade;
+    private final QuestradeImpl questradeImpl;
+
+    // Pulls before the scoreboards are trusted over the default order of Yahoo then Questrade
+    private static final int MIN_SAMPLES = 20;
+    // Error rates closer than this are treated as the same, and latency decides
+    private static final double ERROR_RATE_MARGIN = 0.1;
+    private static final int PROBE_INTERVAL = 50;
+    private static final long NOT_DISPATCHED = Long.MIN_VALUE;
+
+    // Only starts the hedged pulls, the pulls themselves run elsewhere
+    private static final ScheduledExecutorService HEDGER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "StockPuller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Shared by every thread pulling stocks, so the limits hold for the whole process. Questrade
+    // limits each attempt itself, see QuestradeImpl.
+    private final ProviderLimiter yahooLimiter = new ProviderLimiter("Yahoo", yahooRate, yahooConcurrency);
+
+    // The Yahoo client blocks, so its pulls get their own threads
+    private final ExecutorService yahooPool = Executors.newFixedThreadPool(yahooConcurrency, r -> {
+        Thread thread = new Thread(r, "Yahoo");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A Yahoo pull is a single attempt and holds its permit until it is done
+    private final Provider yahoo = new Provider(new ProviderScoreboard("Yahoo"),
+            (symbol, from, to, onDispatch) -> yahooLimiter.callAsync(() -> {
+                onDispatch.run();
+                return pullStockFromYahooAsync(symbol, from, to);
+            }));
+    private final Provider questrade = new Provider(new ProviderScoreboard("Questrade"), this::pullStockFromQuestrade);
+    private final AtomicInteger pulls = new AtomicInteger();
 
     public static DateTime DEFAULT_START_DATE = new DateTime("2008-01-01", DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
 
     @Inject
     public StockPuller(QuestradeImpl questradeImpl) {
-        this.questrade = questradeImpl;
+        this.questradeImpl = questradeImpl;
     }
 
     public StockFA getStock(Symbol symbol) throws Exception {
@@ -42,47 +91,151 @@ public class StockPuller {
     }
 
     public StockFA getStock(Symbol symbol, DateTime from, DateTime to) throws Exception {
-        return pullStock(symbol, from, to);
+        try {
+            return getStockAsync(symbol, from, to).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            if(e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
     }
 
-    private StockFA pullStock(Symbol symbol, DateTime from, DateTime to) throws Exception {
-        try {
-            // Try pulling from Yahoo first as it can handle more traffic
-            StockFA stockFA = pullStockFromYahoo(symbol, from, to);
-            log.info("Pulled " + symbol.getSymbol() + " from Yahoo");
-            return stockFA;
-        } catch (Exception e) {
-            // Do nothing
+    /**
+     * Pulls from the healthier provider first, see {@link #getProviders()}. If it fails the other one is
+     * tried straight away, and if it is slower than --hedgePercentile of its recent pulls the other one
+     * is raced against it. Whichever succeeds first is used. Both the latency and the hedge delay count
+     * from when the pull gets past the provider's limits, not from when it was queued for them.
+     *
+     * Returns straight away, so the caller can go on to other stocks while the pull is in flight.
+     */
+    public CompletableFuture<StockFA> getStockAsync(Symbol symbol, DateTime from, DateTime to) {
+        Provider[] providers = getProviders();
+        Provider first = providers[0];
+        Provider second = providers[1];
+
+        CompletableFuture<StockFA> result = new CompletableFuture<>();
+        AtomicBoolean secondStarted = new AtomicBoolean();
+        AtomicInteger failures = new AtomicInteger();
+
+        Runnable startSecond = () -> {
+            if(!result.isDone() && secondStarted.compareAndSet(false, true)) {
+                pull(second, symbol, from, to, result, failures, null, null);
+            }
+        };
+
+        long hedgeAfter = hedgePercentile > 0 && first.scoreboard.getSamples() >= MIN_SAMPLES
+                ? first.scoreboard.getLatencyPercentile(hedgePercentile) : -1;
+        Runnable scheduleHedge = null;
+        if(hedgeAfter >= 0) {
+            scheduleHedge = () -> {
+                ScheduledFuture<?> hedge = HEDGER.schedule(startSecond, hedgeAfter, TimeUnit.MILLISECONDS);
+                result.whenComplete((r, e) -> hedge.cancel(false));
+            };
         }
 
-        try {
-            // Try pulling from Questrade
-            StockFA stockFA = pullStockFromQuestrade(symbol, from, to);
-            log.info("Pulled " + symbol.getSymbol() + " from Questrade.");
-            return stockFA;
-        } catch (Exception e) {
-            log.error("Pulling " + symbol.getSymbol() + " from Questrade failed.", e);
+        // Without the second provider started there is nothing left to wait for, so start it
+        pull(first, symbol, from, to, result, failures, startSecond, scheduleHedge);
+        return result;
+    }
+
+    /**
+     * Providers ordered best first. The one with the lower error rate goes first, or if they fail about
+     * as often the one with the lower median latency. Every PROBE_INTERVAL pulls the order is swapped,
+     * so a provider that was down gets the chance to show it is back.
+     */
+    private Provider[] getProviders() {
+        Provider[] providers = {yahoo, questrade};
+        ProviderScoreboard y = yahoo.scoreboard;
+        ProviderScoreboard q = questrade.scoreboard;
+
+        if(y.getSamples() >= MIN_SAMPLES && q.getSamples() >= MIN_SAMPLES) {
+            double errorDiff = y.getErrorRate() - q.getErrorRate();
+            boolean questradeBetter = Math.abs(errorDiff) > ERROR_RATE_MARGIN
+                    ? errorDiff > 0
+                    : q.getLatencyPercentile(0.5) >= 0 && q.getLatencyPercentile(0.5) < y.getLatencyPercentile(0.5);
+            if(questradeBetter) {
+                providers = new Provider[]{questrade, yahoo};
+            }
         }
 
-        // If we've reached here, then we have not pulled it yet
-        log.error("Failed to pull " + symbol.getSymbol());
-        throw new Exception("Failed to pull " + symbol.getSymbol());
+        if(pulls.incrementAndGet() % PROBE_INTERVAL == 0) {
+            providers = new Provider[]{providers[1], providers[0]};
+        }
+        return providers;
     }
 
-    private StockFA pullStockFromQuestrade(Symbol symbol, DateTime from, DateTime to) throws IOException {
-        MarketCandlesResponse response = questrade.getMarketCandles(symbol, from, to, HistoricDataGranularity.OneDay);
-        List<Candle> candles = response.getCandles();
-        List<StockPrice> stockPrices = candles.stream().map(
-                c -> new StockPrice(
-                        new DateTime(c.getStart()),
-                        Double.parseDouble(c.getOpen()),
-                        Double.parseDouble(c.getLow()),
-                        Double.parseDouble(c.getHigh()),
-                        Double.parseDouble(c.getClose()),
-                        Double.parseDouble(c.getVolume())
-                )).collect(Collectors.toList());
-
-        return new StockFA(symbol, stockPrices);
+    /**
+     * Pulls from one provider into result, recording how it went. onDispatch is run once the request is
+     * let through the provider's limits and onFailure if it fails. result fails once both providers have.
+     */
+    private void pull(Provider provider, Symbol symbol, DateTime from, DateTime to, CompletableFuture<StockFA> result,
+                      AtomicInteger failures, Runnable onFailure, Runnable onDispatch) {
+        AtomicLong start = new AtomicLong(NOT_DISPATCHED);
+        provider.pull.apply(symbol, from, to, () -> {
+            start.set(System.nanoTime());
+            if(onDispatch != null) {
+                onDispatch.run();
+            }
+        }).whenComplete((stockFA, e) -> {
+            // A pull that failed before it was dispatched, like on an open circuit, never waited on the provider
+            long dispatched = start.get();
+            long millis = dispatched == NOT_DISPATCHED ? 0 : (System.nanoTime() - dispatched) / 1000000;
+            provider.scoreboard.record(millis, e != null);
+
+            if(e == null) {
+                if(result.complete(stockFA)) {
+                    log.info("Pulled " + symbol.getSymbol() + " from " + provider.scoreboard.getName());
+                }
+                return;
+            }
+
+            log.debug("Pulling " + symbol.getSymbol() + " from " + provider.scoreboard.getName() + " failed.", e);
+            if(failures.incrementAndGet() == 2) {
+                // If we've reached here, then we have not pulled it yet
+                log.error("Failed to pull " + symbol.getSymbol());
+                result.completeExceptionally(new Exception("Failed to pull " + symbol.getSymbol()));
+            } else if(onFailure != null) {
+                onFailure.run();
+            }
+        });
+    }
+
+    /**
+     * How each provider has done recently, logged after an update
+     */
+    public void logScoreboard() {
+        log.info(yahoo.scoreboard);
+        log.info(questrade.scoreboard);
+    }
+
+    private CompletableFuture<StockFA> pullStockFromQuestrade(Symbol symbol, DateTime from, DateTime to, Runnable onDispatch) {
+        return questradeImpl.getMarketCandlesAsync(symbol, from, to, HistoricDataGranularity.OneDay, onDispatch).thenApply(response -> {
+            List<Candle> candles = response.getCandles();
+            List<StockPrice> stockPrices = candles.stream().map(
+                    c -> new StockPrice(
+                            new DateTime(c.getStart()),
+                            Double.parseDouble(c.getOpen()),
+                            Double.parseDouble(c.getLow()),
+                            Double.parseDouble(c.getHigh()),
+                            Double.parseDouble(c.getClose()),
+                            Double.parseDouble(c.getVolume())
+                    )).collect(Collectors.toList());
+
+            return new StockFA(symbol, stockPrices);
+        });
+    }
+
+    private CompletableFuture<StockFA> pullStockFromYahooAsync(Symbol symbol, DateTime from, DateTime to) {
+        return CompletableFuture.supplyAsync(() -> pullStockFromYahooUnchecked(symbol, from, to), yahooPool);
+    }
+
+    @SneakyThrows
+    private StockFA pullStockFromYahooUnchecked(Symbol symbol, DateTime from, DateTime to) {
+        return pullStockFromYahoo(symbol, from, to);
     }
 
     private StockFA pullStockFromYahoo(Symbol symbol, DateTime from, DateTime to) throws IOException {
@@ -115,4 +268,18 @@ public class StockPuller {
         StockFA stockFA = new StockFA(symbol, stockPrices);
         return stockFA;
     }
+
+    @FunctionalInterface
+    private interface Pull {
+        /**
+         * onDispatch must be run when the request is let through the provider's limits
+         */
+        CompletableFuture<StockFA> apply(Symbol symbol, DateTime from, DateTime to, Runnable onDispatch);
+    }
+
+    @Data
+    private static class Provider {
+        private final ProviderScoreboard scoreboard;
+        private final Pull pull;
+    }
 }
@@ -1,5 +1,6 @@
 package com.financialanalysis.updater;
 
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.store.StockStore;
@@ -30,10 +31,17 @@ public class StockRetriever {
      * Will return locally stored stock if exists
      */
     public List<StockFA> getStocks(List<Symbol> symbols) {
-        Map<Symbol, StockFA> storedStocks = stockStore.load(symbols);
+        Map<Symbol, StockFA> storedStocks = stockStore.loadMapped(symbols);
         return new ArrayList<>(storedStocks.values());
     }
 
+    /**
+     * Will return zero copy views of the locally stored stocks, see {@link StockStore#loadSeries(List)}
+     */
+    public Map<Symbol, PriceSeries> getPriceSeries(List<Symbol> symbols) {
+        return stockStore.loadSeries(symbols);
+    }
+
     /**
      * Will return num random stocks from the local store.
      *
@@ -53,7 +61,7 @@ public class StockRetriever {
         }
         lastIndex = tmp;
 
-        Map<Symbol, StockFA> storedStocks = stockStore.load(symbols);
+        Map<Symbol, StockFA> storedStocks = stockStore.loadMapped(symbols);
         List<StockFA> stockList = new ArrayList<>(storedStocks.values());
 
         return stockList;
@@ -1,26 +1,41 @@
 package com.financialanalysis.updater;
 
 import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
+import com.financialanalysis.store.IntegrityReport;
+import com.financialanalysis.store.RecentWindowStore;
+import com.financialanalysis.store.StockIntegrity;
 import com.financialanalysis.store.StockStore;
 import com.financialanalysis.store.SymbolStore;
 import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.inject.Inject;
 import lombok.Data;
+import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j;
+import org.apache.commons.io.FileUtils;
 import org.joda.time.DateTime;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static com.financialanalysis.workflow.Main.*;
 
 @Log4j
 public class StockUpdater {
@@ -28,158 +43,206 @@ public class StockUpdater {
     private final StockStore stockStore;
     private final StockMerger stockMerger;
     private final SymbolStore symbolStore;
+    private final RecentWindowStore recentWindowStore;
 
     private static final int BATCH_SIZE = 100;
+    private static final String REPORT_FILE = "var/output/integrity-report.json";
 
     private AtomicInteger numProcessed = new AtomicInteger(0);
+    private AtomicInteger numFailed = new AtomicInteger(0);
     private AtomicInteger totalStocks = new AtomicInteger(0);
 
+    // Stocks whose stored history changed during this update
+    private final Set<Symbol> updated = ConcurrentHashMap.newKeySet();
+
     @Inject
     public StockUpdater(StockPuller stockPuller,
                         StockStore stockStore,
                         StockMerger stockMerger,
-                        SymbolStore symbolStore) {
+                        SymbolStore symbolStore,
+                        RecentWindowStore recentWindowStore) {
         this.stockPuller = stockPuller;
         this.stockStore = stockStore;
         this.stockMerger = stockMerger;
         this.symbolStore = symbolStore;
+        this.recentWindowStore = recentWindowStore;
     }
 
     /**
      * For all the symbols, determine what is missing and merge than
      * into existing stockStore. If symbol is not in stockStore, then
      * add it to the stockStore.
+     *
+     * Every symbol is fetched on its own task, and StockPuller's per provider limits decide how many
+     * requests are actually in flight. Each stock is merged and stored as soon as it arrives.
      */
     public void update() {
         log.info("Updating stocks");
+        long start = System.nanoTime();
+
         List<Symbol> allSymbols = symbolStore.load();
         totalStocks.set(allSymbols.size());
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        numProcessed.set(0);
+        numFailed.set(0);
+        updated.clear();
 
-        List<List<Symbol>> lists = Lists.partition(allSymbols, BATCH_SIZE);
-        for(List<Symbol> list : lists) {
-            executorService.execute(() -> updateStocks(list));
-        }
+        // Enough threads to fill both providers, the limiters do the throttling
+        int threads = yahooConcurrency + questradeConcurrency;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        // Bounds how many loaded stocks are waiting on the network at once
+        Semaphore pending = new Semaphore(2 * BATCH_SIZE);
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
 
-        // Wait for everything to be finished
-        log.info("Waiting for update to finish.");
-        executorService.shutdown();
         try {
-            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for(List<Symbol> list : Lists.partition(allSymbols, BATCH_SIZE)) {
+                // Only the last day of each stock is needed, which a mapped stock reads without loading the rest
+                Map<Symbol, StockFA> loadedStocks = stockStore.loadMapped(list);
+
+                for(Symbol symbol : list) {
+                    StockFA loadedStock = loadedStocks.get(symbol);
+                    pending.acquire();
+                    futures.add(CompletableFuture.supplyAsync(() -> updateStock(symbol, loadedStock, executorService), executorService)
+                            .thenCompose(update -> update)
+                            .whenComplete((r, e) -> pending.release()));
+                }
+            }
+
+            log.info("Waiting for update to finish.");
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
         } catch (InterruptedException e) {
             // Stop everything and report what we have
-            log.error("All threads did not shut down, killing them ...");
+            log.error("Update interrupted, killing remaining pulls ...");
+        } finally {
             executorService.shutdownNow();
         }
-        log.info("Update has finished.");
+
+        // Only the stocks that changed are read back from the store
+        recentWindowStore.refresh(allSymbols, updated);
+
+        double seconds = (double) (System.nanoTime() - start) / 1000000000.0;
+        log.info(String.format("Update has finished. Processed %d stocks in %d seconds, %d failed",
+                numProcessed.get(), (int) seconds, numFailed.get()));
+        stockPuller.logScoreboard();
     }
 
     /**
-     * For stocks in stockStore as listed in symbols, update them
+     * Verifies every stored stock and repairs those it can, see {@link com.financialanalysis.store.StockStore#cleanStockStore}.
+     * The report is saved as json and repaired stocks are refreshed in the recent window.
      */
-    public void updateStocks(List<Symbol> symbols) {
-        long start = System.nanoTime();
+    @SneakyThrows
+    public IntegrityReport check() {
+        List<Symbol> allSymbols = symbolStore.load();
+        IntegrityReport report = stockStore.cleanStockStore(allSymbols);
 
-        // Pull all stocks in store
-        Map<Symbol, StockFA> loadedStocks = stockStore.load(symbols);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        FileUtils.writeStringToFile(new File(REPORT_FILE), gson.toJson(report));
 
-        // Get updates for them and store them back into store
-        Map<Symbol, StockFA> updatedStocks = getUpdates(loadedStocks);
-        Map<Symbol, StockFA> mergedStocks = stockMerger.merge(loadedStocks, updatedStocks);
-        stockStore.store(mergedStocks);
+        Set<String> repaired = report.getStocks().stream()
+                .filter(StockIntegrity::isRepaired)
+                .map(StockIntegrity::getSymbol)
+                .collect(Collectors.toSet());
+        if(!repaired.isEmpty()) {
+            recentWindowStore.refresh(allSymbols, allSymbols.stream().filter(s -> repaired.contains(s.getSymbol())).collect(Collectors.toSet()));
+        }
+        return report;
+    }
 
-        // For any missing symbols, add them to the store
-        List<Symbol> missingSymbols = new ArrayList<>();
-        for(Symbol symbol : symbols) {
-            if(!loadedStocks.containsKey(symbol)) {
-                missingSymbols.add(symbol);
+    /**
+     * Pulls what is missing for one stock and appends it to the store. If there is no loadedStock,
+     * then the entire stock is pulled and stored.
+     *
+     * Completes once the stock is stored. A pull that falls back to Questrade doesn't hold the thread
+     * while it waits, the result is stored on executor when it arrives.
+     */
+    private CompletableFuture<Void> updateStock(Symbol symbol, StockFA loadedStock, Executor executor) {
+        CompletableFuture<Void> update;
+        try {
+            StockToPull stockToPull = getStockToPull(symbol, loadedStock);
+            if(stockToPull == null) {
+                update = CompletableFuture.completedFuture(null);
+            } else {
+                DateTime from = stockToPull.getHasFrom() ? stockToPull.getFrom() : StockPuller.DEFAULT_START_DATE;
+                update = stockPuller.getStockAsync(symbol, from, stockToPull.getTo())
+                        .thenAcceptAsync(pulledStock -> storeStock(symbol, loadedStock, stockToPull, pulledStock), executor);
             }
+        } catch (Exception e) {
+            update = new CompletableFuture<>();
+            update.completeExceptionally(e);
         }
-        addStocksToStore(missingSymbols);
 
-        numProcessed.addAndGet(symbols.size());
-        log.info(String.format("Processed %d/%d", numProcessed.get(), totalStocks.get()));
+        return update.handle((r, e) -> {
+            if(e != null) {
+                log.error("Update failed: " + symbol.getSymbol());
+                numFailed.incrementAndGet();
+            }
 
-        long end = System.nanoTime();
-        long elapsedTime = end - start;
-        double seconds = (double)elapsedTime / 1000000000.0;
-        log.info(String.format("Processed %d stocks in %d seconds", symbols.size(), (int) seconds));
+            int processed = numProcessed.incrementAndGet();
+            if(processed % BATCH_SIZE == 0) {
+                log.info(String.format("Processed %d/%d", processed, totalStocks.get()));
+            }
+            return null;
+        });
     }
 
-    /**
-     * If symbol is not already in stockStore, pull it from network and store it
-     */
-    public void addStocksToStore(List<Symbol> symbols) {
-        Map<Symbol, StockFA> storedStocks = stockStore.load(symbols);
-        boolean storedStocksChanged = false;
-
-        // If we don't have symbol in stock store, go get it and put it in the store
-        for(Symbol symbol : symbols) {
-            if(!storedStocks.containsKey(symbol)) {
-                try {
-                    StockFA stock = stockPuller.getStock(symbol);
-                    storedStocks.put(symbol, stock);
-                    storedStocksChanged = true;
-                } catch (Exception e) {
-                    log.error("Add to store failed: " + symbol.getSymbol());
-                }
+    private void storeStock(Symbol symbol, StockFA loadedStock, StockToPull stockToPull, StockFA pulledStock) {
+        if(stockToPull.getHasFrom()) {
+            List<StockPrice> newDays = afterLastDay(loadedStock, pulledStock.getHistory());
+            if(newDays.isEmpty()) {
+                return;
+            }
+            stockStore.append(symbol, newDays);
+        } else {
+            Map<Symbol, StockFA> loadedStocks = new HashMap<>();
+            if(loadedStock != null) {
+                loadedStocks.put(symbol, loadedStock);
             }
+            stockStore.store(stockMerger.merge(loadedStocks, Collections.singletonMap(symbol, pulledStock)));
         }
+        updated.add(symbol);
+    }
 
-        if(storedStocksChanged) {
-            stockStore.store(storedStocks);
+    /**
+     * The pulled prices less those at the start that are already stored. Providers send the last stored
+     * day again when asked for a range with no trading days in it, or when their range is inclusive.
+     * Anything out of order after that is left for append to reject.
+     */
+    private static List<StockPrice> afterLastDay(StockFA loadedStock, List<StockPrice> pulled) {
+        PriceSeries stored = loadedStock.getPriceSeries();
+        int lastDay = stored.epochDayAt(stored.size() - 1);
+
+        int first = 0;
+        while(first < pulled.size() && DateTimeUtils.toEpochDay(pulled.get(first).getDate()) <= lastDay) {
+            first++;
         }
+        return pulled.subList(first, pulled.size());
     }
 
     /**
-     * Determines what updates are needed and goes and pulls them from the network
+     * Determines what update is needed for a stock, null if it is already up to date
      */
-    private Map<Symbol, StockFA> getUpdates(Map<Symbol, StockFA> loadedStocks) {
+    private StockToPull getStockToPull(Symbol symbol, StockFA stock) {
         DateTime currentDay = DateTimeUtils.getToday();
-
-        Map<Symbol, StockToPull> stocksToPull = new LinkedHashMap<>();
-        Collection<Symbol> symbols = loadedStocks.keySet();
-        for(Symbol symbol : symbols) {
-            StockFA stock = loadedStocks.get(symbol);
-
-            try {
-                // Get the most recent date we have stock data for
-                DateTime mostRecentDay = stock.getMostRecentDate();
-
-                // If mostRecentDay is before the current day then there is new data to pull
-                if(mostRecentDay.isBefore(currentDay)) {
-                    // Start grabbing data from the day after mostRecentDay till last millisecond of currentDay
-                    DateTime startDay = mostRecentDay.plusDays(1).withTimeAtStartOfDay();
-                    DateTime endDay = currentDay.plusDays(1).withTimeAtStartOfDay().minusMillis(1);
-                    stocksToPull.put(symbol, new StockToPull(symbol, startDay, endDay, true));
-                }
-            } catch (Exception e) {
-                // Doesn't have a most recent date, so attempt to pull the entire stock
-                stocksToPull.put(symbol, new StockToPull(symbol, null, currentDay, false));
-            }
+        if(stock == null) {
+            return new StockToPull(symbol, null, currentDay, false);
         }
 
-        List<Symbol> failedSymbols = Lists.newArrayList();
-        Map<Symbol, StockFA> updatedStocks = new HashMap<>();
-        symbols = stocksToPull.keySet();
-        for(Symbol symbol : symbols) {
-            StockToPull stockToPull = stocksToPull.get(symbol);
-            try {
-                StockFA stockFa;
-                if(stockToPull.getHasFrom()) {
-                    stockFa = stockPuller.getStock(stockToPull.getSymbol(), stockToPull.getFrom(), stockToPull.getTo());
-                } else {
-                    stockFa = stockPuller.getStock(stockToPull.getSymbol());
-                }
-                updatedStocks.put(symbol, stockFa);
-            } catch (Exception e) {
-                log.error("Update failed: " + stockToPull.getSymbol());
-                failedSymbols.add(symbol);
+        try {
+            // Get the most recent date we have stock data for
+            DateTime mostRecentDay = stock.getMostRecentDate();
+
+            // If mostRecentDay is before the current day then there is new data to pull
+            if(mostRecentDay.isBefore(currentDay)) {
+                // Start grabbing data from the day after mostRecentDay till last millisecond of currentDay
+                DateTime startDay = mostRecentDay.plusDays(1).withTimeAtStartOfDay();
+                DateTime endDay = currentDay.plusDays(1).withTimeAtStartOfDay().minusMillis(1);
+                return new StockToPull(symbol, startDay, endDay, true);
             }
+            return null;
+        } catch (Exception e) {
+            // Doesn't have a most recent date, so attempt to pull the entire stock
+            return new StockToPull(symbol, null, currentDay, false);
         }
-        log.info("Failed to pull: " + failedSymbols.size());
-
-        return updatedStocks;
     }
 
     @Data
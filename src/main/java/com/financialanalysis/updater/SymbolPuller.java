@@ -1,74 +1,152 @@
 package com.financialanalysis.updater;
 
-import com.financialanalysis.analysis.AnalysisTools;
 import com.financialanalysis.data.DetailedSymbol;
 import com.financialanalysis.data.Symbol;
 import com.financialanalysis.questrade.Questrade;
 import com.financialanalysis.questrade.response.SymbolsIdResponse;
+import com.financialanalysis.store.SymbolCheckpointStore;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import lombok.SneakyThrows;
 import lombok.extern.log4j.Log4j;
+import org.apache.http.client.HttpResponseException;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
-import static com.financialanalysis.analysis.AnalysisTools.deepCopyStringList;
 import static com.financialanalysis.analysis.AnalysisTools.deepCopySymbolList;
+import static com.financialanalysis.workflow.Main.*;
 
 @Log4j
 public class SymbolPuller {
     private final Questrade questrade;
+    private final SymbolCheckpointStore checkpointStore;
 
     //Experimentally determined 46997 to be the max number of stock ids
     private final static int MAX_SYMBOL_ID = 46997;
     private final static int BATCH_SIZE = 100;
+    private final static int MAX_ATTEMPTS = 8;
 
-    private List<Symbol> found = new LinkedList<>();
+    // Symbols found in each batch, keyed by the first id of the batch so they come out in id order
+    private Map<Integer, List<Symbol>> found = new TreeMap<>();
+    private int numFound = 0;
 
     @Inject
-    public SymbolPuller(Questrade questrade) {
+    public SymbolPuller(Questrade questrade, SymbolCheckpointStore checkpointStore) {
         this.questrade = questrade;
+        this.checkpointStore = checkpointStore;
     }
 
+    /**
+     * Pulls every symbol id in batches, symbolConcurrency batches at a time. Batches finished by an
+     * earlier, interrupted call are taken from the checkpoint instead of being pulled again.
+     */
     @SneakyThrows
     public List<Symbol> getAllSymbols() {
-        List<String> batch = new ArrayList<>();
-        for(int symbolId = 1; symbolId <= MAX_SYMBOL_ID; symbolId++) {
-            batch.add(Integer.toString(symbolId));
+        found = new TreeMap<>();
+        numFound = 0;
 
-            if(batch.size() >= BATCH_SIZE) {
-                getSymbols(deepCopyStringList(batch));
-                batch.clear();
+        Map<Integer, List<Symbol>> checkpoint = checkpointStore.load();
+        checkpoint.forEach(this::addFound);
+        if(!checkpoint.isEmpty()) {
+            log.info(String.format("Resuming from checkpoint with %d batches done", checkpoint.size()));
+        }
+
+        AdaptiveLimiter limiter = new AdaptiveLimiter(symbolConcurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, symbolConcurrency));
+
+        List<Future<?>> futures = Lists.newArrayList();
+        try {
+            for(int firstId = 1; firstId <= MAX_SYMBOL_ID; firstId += BATCH_SIZE) {
+                if(checkpoint.containsKey(firstId)) continue;
+
+                List<String> batch = new ArrayList<>();
+                for(int symbolId = firstId; symbolId < firstId + BATCH_SIZE && symbolId <= MAX_SYMBOL_ID; symbolId++) {
+                    batch.add(Integer.toString(symbolId));
+                }
+
+                int batchId = firstId;
+                futures.add(executor.submit(() -> getSymbols(batchId, batch, limiter)));
             }
+
+            // Let every batch finish before failing, so the checkpoint holds as much as possible
+            Exception failure = null;
+            for(Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            if(failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
         }
-        getSymbols(deepCopyStringList(batch));
 
+        checkpointStore.clear();
         return getFound();
     }
 
+    /**
+     * Pulls one batch, backing off and retrying while the server is throttling or failing
+     */
     @SneakyThrows
-    private void getSymbols(List<String> ids) {
-        if(ids.isEmpty()) return;
+    private void getSymbols(int firstId, List<String> ids, AdaptiveLimiter limiter) {
+        for(int attempt = 1; ; attempt++) {
+            limiter.acquire();
+
+            SymbolsIdResponse response;
+            try {
+                response = questrade.getSymbolsId(ids);
+            } catch (HttpResponseException e) {
+                boolean throttled = e.getStatusCode() == 429 || e.getStatusCode() >= 500;
+                if(throttled) {
+                    limiter.onThrottled();
+                } else {
+                    limiter.onFailure();
+                }
+
+                if(!throttled || attempt >= MAX_ATTEMPTS) {
+                    log.error(String.format("Failed to pull symbol ids %d-%d", firstId, firstId + ids.size() - 1));
+                    throw e;
+                }
+                continue;
+            } catch (Exception e) {
+                limiter.onFailure();
+                throw e;
+            }
+            limiter.onSuccess();
 
-        SymbolsIdResponse response = questrade.getSymbolsId(ids);
-        List<Symbol> symbols = response.getSymbols().stream().map(DetailedSymbol::convertToSymbol).collect(Collectors.toList());
-        addFound(symbols);
+            List<Symbol> symbols = response.getSymbols().stream().map(DetailedSymbol::convertToSymbol).collect(Collectors.toList());
+            checkpointStore.append(firstId, symbols);
+            addFound(firstId, symbols);
 
-        for(Symbol s : symbols) log.info(s.getSymbol() + " " + s.getDescription());
-        log.info(String.format("%d/%d", getNumFound(), MAX_SYMBOL_ID));
+            for(Symbol s : symbols) log.info(s.getSymbol() + " " + s.getDescription());
+            log.info(String.format("%d/%d", getNumFound(), MAX_SYMBOL_ID));
+            return;
+        }
     }
 
-    private synchronized void addFound(List<Symbol> symbols) {
-        found.addAll(symbols);
+    private synchronized void addFound(int firstId, List<Symbol> symbols) {
+        found.put(firstId, symbols);
+        numFound += symbols.size();
     }
 
     private synchronized List<Symbol> getFound() {
-        return deepCopySymbolList(found);
+        List<Symbol> all = new ArrayList<>(numFound);
+        found.values().forEach(all::addAll);
+        return deepCopySymbolList(all);
     }
 
     private synchronized int getNumFound() {
-        return found.size();
+        return numFound;
     }
 }
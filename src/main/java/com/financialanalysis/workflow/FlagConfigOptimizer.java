@@ -0,0 +1,316 @@
+package com.financialanalysis.workflow;
+
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.Symbol;
+import com.financialanalysis.store.SymbolStore;
+import com.financialanalysis.strategy.FlagConfig;
+import com.financialanalysis.strategy.FlagConfigSpace;
+import com.financialanalysis.strategy.FlagSeries;
+import com.financialanalysis.strategy.FlagStrategy;
+import com.financialanalysis.strategy.StrategyOutput;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import static com.financialanalysis.workflow.Main.*;
+
+/**
+ * Back tests the flag strategy over many configs and ranks them by aggregate return, which is the
+ * average gain or loss over every stock the config was run on.
+ *
+ * The configs come from the values in var/config/flag-sweep applied over var/config/flag, either as
+ * the whole grid, a random sample, or a random sample narrowed by successive halving. Halving runs
+ * every config on a small share of the stocks, keeps the best third, and runs the survivors on three
+ * times as many stocks until they have seen all of them.
+ *
+ * Each stock is loaded once and its arrays are shared by every config. The (config x stock) back tests
+ * are split up on a fork join pool.
+ */
+@Log4j
+@Singleton
+public class FlagConfigOptimizer {
+    private static final int HALVING_RATE = 3;
+    private static final int MIN_HALVING_STOCKS = 20;
+    private static final int TASK_SIZE = 4;
+    private static final String BEST_CONFIG_FILE = "flag-best";
+    private static final String OUTPUT_DIR = "var/output/";
+    private static final String TABLE_FILE = "flag-sweep.txt";
+    private static final int TABLE_ROWS = 50;
+
+    private final SymbolStore symbolStore;
+    private final StrategyRunner strategyRunner;
+
+    @Inject
+    public FlagConfigOptimizer(SymbolStore symbolStore,
+                               StrategyRunner strategyRunner) {
+        this.symbolStore = symbolStore;
+        this.strategyRunner = strategyRunner;
+    }
+
+    /**
+     * Runs the sweep, saves the ranked table to var/output/flag-sweep.txt and the best config to
+     * var/config/flag-best. Returns every config tried, best first.
+     */
+    @SneakyThrows
+    public List<FlagScore> optimize() {
+        long seed = System.nanoTime();
+        Random random = new Random(seed);
+        log.info("Optimizing flag config with " + optimizeSearch + " search, seed " + seed);
+
+        FlagConfig base = FlagConfig.readFromFile();
+        List<FlagScore> scores = newScores(base, getCandidates(FlagConfigSpace.readFromFile(), random));
+
+        List<FlagSeries> series = toSeries(loadStocks(random), strategyRunner.getBacktestStart(), strategyRunner.getBacktestEnd());
+        log.info("Trying " + scores.size() + " configs on " + series.size() + " stocks");
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        List<FlagScore> ranked;
+        try {
+            ranked = rank(scores, series, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        if(!ranked.isEmpty() && !series.isEmpty()) {
+            report(ranked);
+        }
+        return ranked;
+    }
+
+    /**
+     * Runs the configs on the stocks with the search from --optimizeSearch, and returns them best first.
+     * The back tests run on pool, which may be the pool of the calling task.
+     */
+    List<FlagScore> rank(List<FlagScore> scores, List<FlagSeries> series, ForkJoinPool pool) {
+        if(scores.isEmpty() || series.isEmpty()) {
+            return scores;
+        }
+
+        boolean halving = optimizeSearch.equals("halving");
+        int budget = halving ? getFirstBudget(scores.size(), series.size()) : series.size();
+        int evaluated = 0;
+        List<FlagScore> survivors = scores;
+        while(true) {
+            int stocks = budget - evaluated;
+            invoke(pool, new SweepTask(survivors, series, evaluated, stocks, 0, survivors.size() * stocks));
+            log.info(String.format("Ran %d configs on %d stocks", survivors.size(), budget));
+            evaluated = budget;
+            if(budget == series.size()) {
+                break;
+            }
+
+            survivors = Lists.newArrayList(survivors);
+            survivors.sort(FlagScore.RANKING);
+            survivors = survivors.subList(0, (survivors.size() + HALVING_RATE - 1) / HALVING_RATE);
+            budget = (int) Math.min(series.size(), (long) budget * HALVING_RATE);
+        }
+
+        List<FlagScore> ranked = Lists.newArrayList(scores);
+        ranked.sort(FlagScore.RANKING);
+        return ranked;
+    }
+
+    private static void invoke(ForkJoinPool pool, ForkJoinTask<?> task) {
+        // Forking from a worker of the same pool lets it help with the task instead of blocking
+        if(ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    static List<FlagScore> newScores(FlagConfig base, List<Map<String, Number>> candidates) {
+        return candidates.stream()
+                .map(assignment -> new FlagScore(assignment, FlagConfigSpace.apply(base, assignment)))
+                .collect(Collectors.toList());
+    }
+
+    List<Map<String, Number>> getCandidates(FlagConfigSpace space, Random random) {
+        switch(optimizeSearch) {
+            case "grid":
+                return space.grid();
+            case "random":
+            case "halving":
+                return space.random(optimizeSamples, random);
+            default:
+                throw new IllegalArgumentException("Unknown search " + optimizeSearch + ", expected grid, random or halving");
+        }
+    }
+
+    /**
+     * Number of stocks for the first round of halving, so the last round runs on all of them
+     */
+    private int getFirstBudget(int numConfigs, int numStocks) {
+        long divisor = 1;
+        for(int left = numConfigs; left > 1; left = (left + HALVING_RATE - 1) / HALVING_RATE) {
+            divisor *= HALVING_RATE;
+        }
+        int budget = (int) Math.max(MIN_HALVING_STOCKS, (numStocks + divisor - 1) / divisor);
+        return Math.min(budget, numStocks);
+    }
+
+    /**
+     * Loads the stocks to optimize over, in random order. The stocks are mapped from the universe,
+     * so slicing them into series for different dates does not copy the history.
+     */
+    List<StockFA> loadStocks(Random random) {
+        List<Symbol> symbols;
+        if(!Strings.isNullOrEmpty(backtestStocks)) {
+            symbols = symbolStore.load(Lists.newArrayList(backtestStocks.split(",")));
+        } else {
+            symbols = symbolStore.load();
+        }
+        Collections.shuffle(symbols, random);
+        if(optimizeStocks > 0 && symbols.size() > optimizeStocks) {
+            symbols = symbols.subList(0, optimizeStocks);
+        }
+
+        return new ArrayList<>(strategyRunner.getStockLoader().apply(symbols));
+    }
+
+    /**
+     * The stocks restricted to the dates, leaving out those with too few days to find a flag
+     */
+    static List<FlagSeries> toSeries(List<StockFA> stocks, DateTime start, DateTime end) {
+        return toSeries(stocks, start, start, end);
+    }
+
+    /**
+     * Same as {@link #toSeries(List, DateTime, DateTime)}, with the days from warmupStart in front
+     * for the indicators. Only flags from start on are traded.
+     */
+    static List<FlagSeries> toSeries(List<StockFA> stocks, DateTime warmupStart, DateTime start, DateTime end) {
+        List<FlagSeries> series = new ArrayList<>(stocks.size());
+        for(StockFA stock : stocks) {
+            FlagSeries flagSeries = FlagSeries.of(stock.getSymbol(), stock.getPriceSeries(), warmupStart, start, end);
+            if(flagSeries.size() >= FlagStrategy.MIN_DATA_POINTS && flagSeries.getTradeFrom() < flagSeries.size()) {
+                series.add(flagSeries);
+            }
+        }
+        return series;
+    }
+
+    @SneakyThrows
+    private void report(List<FlagScore> ranked) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-5s %10s %7s %7s %7s %7s  %s%n", "Rank", "Return%", "Stocks", "Traded", "Win%", "Trades", "Config"));
+        for(int i = 0; i < ranked.size() && i < TABLE_ROWS; i++) {
+            FlagScore score = ranked.get(i);
+            table.append(String.format("%-5d %10.3f %7d %7d %7.1f %7d  %s%n",
+                    i + 1,
+                    score.getAggregateReturn(),
+                    score.getStocks(),
+                    score.getTraded(),
+                    score.getWinRate() * 100.0,
+                    score.getTrades(),
+                    score.getAssignment()));
+        }
+        log.info("\n" + table);
+
+        FileUtils.writeStringToFile(new File(OUTPUT_DIR + TABLE_FILE), table.toString());
+        ranked.get(0).getConfig().saveAs(BEST_CONFIG_FILE);
+    }
+
+    /**
+     * Back tests the (config x stock) pairs numbered from to until, where pair n is config
+     * n / stocks and stock firstStock + n % stocks. Splits in half until the range is small.
+     */
+    private static class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<FlagScore> scores;
+        private final List<FlagSeries> series;
+        private final int firstStock;
+        private final int stocks;
+        private final int from;
+        private final int until;
+
+        SweepTask(List<FlagScore> scores, List<FlagSeries> series, int firstStock, int stocks, int from, int until) {
+            this.scores = scores;
+            this.series = series;
+            this.firstStock = firstStock;
+            this.stocks = stocks;
+            this.from = from;
+            this.until = until;
+        }
+
+        @Override
+        protected void compute() {
+            if(until - from > TASK_SIZE) {
+                int mid = (from + until) >>> 1;
+                invokeAll(
+                        new SweepTask(scores, series, firstStock, stocks, from, mid),
+                        new SweepTask(scores, series, firstStock, stocks, mid, until)
+                );
+                return;
+            }
+
+            for(int n = from; n < until; n++) {
+                FlagScore score = scores.get(n / stocks);
+                FlagSeries stock = series.get(firstStock + n % stocks);
+                score.add(new FlagStrategy().backtest(stock, score.getConfig()));
+            }
+        }
+    }
+
+    @Data
+    public static class FlagScore {
+        static final Comparator<FlagScore> RANKING = Comparator
+                .comparingInt(FlagScore::getStocks).reversed()
+                .thenComparing(Comparator.comparingDouble(FlagScore::getAggregateReturn).reversed());
+
+        private final Map<String, Number> assignment;
+        private final FlagConfig config;
+
+        private int stocks;
+        private int traded;
+        private int wins;
+        private int trades;
+        private double totalReturn;
+
+        /**
+         * Called from the sweep tasks, each config is run on many stocks at once
+         */
+        synchronized void add(StrategyOutput output) {
+            stocks++;
+            if(!output.isEmpty()) {
+                double gainLoss = output.getAccount().getPercentageGainLoss();
+                traded++;
+                trades += output.getAccount().getActivity().size();
+                totalReturn += gainLoss;
+                if(gainLoss > 0) {
+                    wins++;
+                }
+            }
+        }
+
+        /**
+         * Average percentage gain or loss over every stock run, counting stocks without trades as 0
+         */
+        public double getAggregateReturn() {
+            return stocks == 0 ? 0 : totalReturn / stocks;
+        }
+
+        public double getWinRate() {
+            return traded == 0 ? 0 : (double) wins / traded;
+        }
+    }
+}
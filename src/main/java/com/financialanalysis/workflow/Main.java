@@ -25,19 +25,88 @@ public class Main {
     @Parameter(names={"--backtestEnd", "-bEnd"}, description = "Back test start end. If empty, use today")
     public static String backtestEnd;
 
+    @Parameter(names={"--optimizeFlag", "-of"}, description = "Back test the flag strategy over the values in var/config/flag-sweep and rank the configs.")
+    public static boolean optimizeFlag;
+
+    @Parameter(names={"--optimizeSearch"}, description = "How to pick flag configs to try: grid, random or halving.")
+    public static String optimizeSearch = "halving";
+
+    @Parameter(names={"--optimizeSamples"}, description = "Number of flag configs to try for random and halving search.")
+    public static int optimizeSamples = 81;
+
+    @Parameter(names={"--optimizeStocks"}, description = "Number of random stocks to optimize over, all stocks if 0.")
+    public static int optimizeStocks = 500;
+
+
+    @Parameter(names={"--portfolio", "-pf"}, description = "Back test all stocks as one portfolio with shared capital.")
+    public static boolean portfolio;
+
+    @Parameter(names={"--portfolioCapital"}, description = "Starting cash of the portfolio back test.")
+    public static double portfolioCapital = 100000.0;
+
+    @Parameter(names={"--portfolioMaxPositions"}, description = "Max positions the portfolio holds at once.")
+    public static int portfolioMaxPositions = 10;
+
+    @Parameter(names={"--portfolioPositionSize"}, description = "Fraction of the portfolio balance put in each new position.")
+    public static double portfolioPositionSize = 0.1;
+
+    @Parameter(names={"--portfolioCommission"}, description = "Commission paid on every portfolio buy and sell.")
+    public static double portfolioCommission = 7.0;
+
+    @Parameter(names={"--walkForward", "-wf"}, description = "Pick flag configs on rolling train periods and back test each on the period after it.")
+    public static boolean walkForward;
+
+    @Parameter(names={"--walkForwardTrainDays"}, description = "Days in each walk forward train period.")
+    public static int walkForwardTrainDays = 730;
+
+    @Parameter(names={"--walkForwardTestDays"}, description = "Days in each walk forward test period, and the step between windows.")
+    public static int walkForwardTestDays = 180;
 
     //UPDATE PARAMS
     @Parameter(names={"--updateSymbols", "-usym"}, description = "Update the stored symbols from Questrade.")
     public static boolean updateSymbols;
 
+    @Parameter(names={"--symbolConcurrency"}, description = "Max symbol id batches in flight to Questrade while updating symbols. Separate from --questradeConcurrency.")
+    public static int symbolConcurrency = 8;
+
+    @Parameter(names={"--symbolCheckpointHours"}, description = "Resume a failed symbol update only from batches pulled within this many hours.")
+    public static int symbolCheckpointHours = 24;
+
     @Parameter(names={"--updateStocks", "-usto"}, description = "Update the stored stock date.")
     public static boolean updateStocks;
 
+    @Parameter(names={"--yahooRate"}, description = "Max requests per second to Yahoo while updating.")
+    public static double yahooRate = 10.0;
+
+    @Parameter(names={"--yahooConcurrency"}, description = "Max requests in flight to Yahoo while updating.")
+    public static int yahooConcurrency = 16;
+
+    @Parameter(names={"--questradeRate"}, description = "Max requests per second to Questrade while updating.")
+    public static double questradeRate = 5.0;
+
+    @Parameter(names={"--questradeConcurrency"}, description = "Max candle and search requests in flight to Questrade. Separate from --symbolConcurrency.")
+    public static int questradeConcurrency = 4;
+
+    @Parameter(names={"--hedgePercentile"}, description = "Also pull from the other provider once a pull is slower than this percentile of recent pulls, 0 to never.")
+    public static double hedgePercentile = 0.95;
+
+    @Parameter(names={"--migrateStocks", "-ms"}, description = "Convert the stored json stock data to the binary format.")
+    public static boolean migrateStocks;
+
+    @Parameter(names={"--checkStocks", "-cs"}, description = "Verify the stored stock data, repair what can be and save var/output/integrity-report.json.")
+    public static boolean checkStocks;
+
 
     //PREDICTIVE RUN PARAMS
     @Parameter(names={"--runStrategies", "-rs"}, description = "Run strategies for today.")
     public static boolean runStrategies;
 
+    @Parameter(names={"--indicators"}, description = "Indicator implementation used by the strategies: default or talib.")
+    public static String indicators = "default";
+
+    @Parameter(names={"--recentWindowDays"}, description = "Trading days kept per stock in the recent window snapshot used by --runStrategies.")
+    public static int recentWindowDays = 150;
+
 
     //REPORT PARAMS
     @Parameter(names={"--export", "-e"}, description = "Stock to export to csv.")
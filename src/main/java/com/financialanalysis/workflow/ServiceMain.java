@@ -3,12 +3,14 @@ package com.financialanalysis.workflow;
 import com.financialanalysis.data.StockFA;
 import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
+import com.financialanalysis.portfolio.PortfolioBacktester;
 import com.financialanalysis.questrade.Questrade;
 import com.financialanalysis.reports.Emailer;
 import com.financialanalysis.reports.Report;
 import com.financialanalysis.reports.Reporter;
 import com.financialanalysis.store.ChartStore;
 import com.financialanalysis.store.StockStore;
+import com.financialanalysis.store.StockStoreMigrator;
 import com.financialanalysis.store.SymbolStore;
 import com.financialanalysis.strategy.FlagConfig;
 import com.financialanalysis.strategyV2.StrategyOutputV2;
@@ -42,6 +44,10 @@ public class ServiceMain implements Runnable {
     private final ChartStore chartStore;
     private final SymbolStore symbolStore;
     private final Emailer emailer;
+    private final StockStoreMigrator stockStoreMigrator;
+    private final FlagConfigOptimizer flagConfigOptimizer;
+    private final PortfolioBacktester portfolioBacktester;
+    private final WalkForwardRunner walkForwardRunner;
 
     @Inject
     public ServiceMain(StockRetriever stockRetriever,
@@ -53,7 +59,11 @@ public class ServiceMain implements Runnable {
                        Reporter reporter,
                        ChartStore chartStore,
                        SymbolStore symbolStore,
-                       Emailer emailer) {
+                       Emailer emailer,
+                       StockStoreMigrator stockStoreMigrator,
+                       FlagConfigOptimizer flagConfigOptimizer,
+                       PortfolioBacktester portfolioBacktester,
+                       WalkForwardRunner walkForwardRunner) {
         this.stockRetriever = stockRetriever;
         this.stockStore = stockStore;
         this.stockUpdater = stockUpdater;
@@ -64,6 +74,10 @@ public class ServiceMain implements Runnable {
         this.chartStore = chartStore;
         this.symbolStore = symbolStore;
         this.emailer = emailer;
+        this.stockStoreMigrator = stockStoreMigrator;
+        this.flagConfigOptimizer = flagConfigOptimizer;
+        this.portfolioBacktester = portfolioBacktester;
+        this.walkForwardRunner = walkForwardRunner;
     }
 
     @Override
@@ -77,6 +91,10 @@ public class ServiceMain implements Runnable {
             return;
         }
 
+        if(migrateStocks) {
+            stockStoreMigrator.migrate();
+        }
+
         if(updateStocks || updateSymbols) {
             questrade.authenticate();
         }
@@ -89,6 +107,10 @@ public class ServiceMain implements Runnable {
             stockUpdater.update();
         }
 
+        if(checkStocks) {
+            stockUpdater.check();
+        }
+
         if(runStrategies) {
             List<StrategyOutputV2> allResults = strategyRunner.run();
             List<Report> reports = reporter.generateReports(allResults);
@@ -96,6 +118,18 @@ public class ServiceMain implements Runnable {
             emailer.emailReports(path);
         }
 
+        if(optimizeFlag) {
+            flagConfigOptimizer.optimize();
+        }
+
+        if(walkForward) {
+            walkForwardRunner.run();
+        }
+
+        if(portfolio) {
+            portfolioBacktester.run();
+        }
+
         if(backtest && !runStrategies) {
             if(!Strings.isNullOrEmpty(backtestStocks)) {
                 backTestOn(backtestStocks);
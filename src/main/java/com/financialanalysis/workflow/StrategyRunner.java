@@ -1,15 +1,21 @@
 package com.financialanalysis.workflow;
 
+import com.financialanalysis.analysis.IndicatorProvider;
 import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.PriceSeries;
 import com.financialanalysis.data.StockFA;
-import com.financialanalysis.data.StockPrice;
 import com.financialanalysis.data.Symbol;
+import com.financialanalysis.store.RecentWindow;
+import com.financialanalysis.store.RecentWindowStore;
 import com.financialanalysis.store.StockStore;
 import com.financialanalysis.store.SymbolStore;
+import com.financialanalysis.store.UniverseMatrix;
+import com.financialanalysis.store.UniverseStore;
 import com.financialanalysis.strategy.FlagConfig;
 import com.financialanalysis.strategy.StrategyOutput;
 import com.financialanalysis.strategy.FlagStrategyInput;
 import com.financialanalysis.strategy.FlagStrategy;
+import com.financialanalysis.strategyV2.SignalSeries;
 import com.financialanalysis.strategyV2.StrategyInput;
 import com.financialanalysis.strategyV2.StrategyOutputV2;
 import com.financialanalysis.strategyV2.bollinger.BollingerStrategy;
@@ -26,15 +32,21 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-import static com.financialanalysis.analysis.AnalysisTools.getValidStockPrices;
+import static com.financialanalysis.analysis.AnalysisTools.getValidPriceSeries;
 import static com.financialanalysis.workflow.Main.*;
 
 @Log4j
@@ -42,31 +54,42 @@ import static com.financialanalysis.workflow.Main.*;
 public class StrategyRunner {
     private final SymbolStore symbolStore;
     private final StockStore stockStore;
+    private final RecentWindowStore recentWindowStore;
+    private final UniverseStore universeStore;
     private final MacdStrategy macdStrategy;
     private final BollingerStrategy bollingerStrategy;
     private final BollingerMacdStategy bollingerMacdStategy;
+    private final IndicatorProvider indicatorProvider;
 
     private final DateTime startDefault = new DateTime("2015-01-01", DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
     private final DateTime runStrategiesStartDate = DateTimeUtils.getToday().minusDays(200);
     private final DateTime today = DateTimeUtils.getToday();
     private final int MAX_BATCH_SIZE = 100;
+    private final int QUEUE_CAPACITY = 2 * MAX_BATCH_SIZE;
+
+    // Put on the stock queue once per evaluator when there is nothing left to load
+    private static final StockFA END_OF_STOCKS = new StockFA(null, Collections.emptyList());
 
-    private final ExecutorService exector;
     private final FlagConfig config;
 
     @Inject
     public StrategyRunner(SymbolStore symbolStore,
                           StockStore stockStore,
+                          RecentWindowStore recentWindowStore,
+                          UniverseStore universeStore,
                           MacdStrategy macdStrategy,
                           BollingerStrategy bollingerStrategy,
-                          BollingerMacdStategy bollingerMacdStategy) {
+                          BollingerMacdStategy bollingerMacdStategy,
+                          IndicatorProvider indicatorProvider) {
         this.symbolStore = symbolStore;
         this.stockStore = stockStore;
+        this.recentWindowStore = recentWindowStore;
+        this.universeStore = universeStore;
         this.macdStrategy = macdStrategy;
         this.bollingerStrategy = bollingerStrategy;
         this.bollingerMacdStategy = bollingerMacdStategy;
+        this.indicatorProvider = indicatorProvider;
 
-        this.exector = Executors.newFixedThreadPool(10);
         this.config = FlagConfig.readFromFile();
     }
 
@@ -90,110 +113,181 @@ public class StrategyRunner {
     }
 
     /**
-     * Run's all strategies on all stocks
+     * Run's all strategies on all stocks.
      */
-    @SneakyThrows
     public List<StrategyOutputV2> run() {
         log.info("Beginning to run all stocks.");
-        List<Symbol> allSymbols = symbolStore.load();
+        return runAll(getStockLoader(), this::runStockV2, output -> !output.isEmpty());
+    }
 
-        List<StrategyOutputV2> results = Lists.newArrayList();
-        List<List<Symbol>> lists = Lists.partition(allSymbols, MAX_BATCH_SIZE);
+    /**
+     * When running for today only the recent days are needed, so stocks come from the recent window
+     * snapshot if there is one. Otherwise the whole market is mapped from the universe, which is built
+     * first if the stock store has changed since. Stocks that neither covers are loaded from the
+     * stock store.
+     */
+    Function<List<Symbol>, Collection<StockFA>> getStockLoader() {
+        if(runStrategies) {
+            Optional<RecentWindow> recentWindow = recentWindowStore.load();
+            if(recentWindow.isPresent()) {
+                int startDay = DateTimeUtils.toEpochDay(getStartDate());
+                return batch -> {
+                    List<StockFA> stocks = Lists.newArrayList();
+                    List<Symbol> missing = Lists.newArrayList();
+                    for(Symbol symbol : batch) {
+                        Optional<PriceSeries> series = recentWindow.get().get(symbol.getSymbol(), startDay);
+                        if(series.isPresent()) {
+                            stocks.add(new StockFA(symbol, series.get()));
+                        } else {
+                            missing.add(symbol);
+                        }
+                    }
+                    return withMissing(stocks, missing);
+                };
+            }
+            return batch -> stockStore.loadMapped(batch).values();
+        }
 
-        lists.forEach(list -> {
-            Map<Symbol, StockFA> stockMap = stockStore.load(list);
-            Collection<StockFA> stocks = stockMap.values();
+        UniverseMatrix universe = universeStore.loadOrBuild(symbolStore.load());
+        return batch -> {
+            List<Symbol> missing = batch.stream().filter(s -> !universe.contains(s.getSymbol())).collect(Collectors.toList());
+            return withMissing(universe.getStocks(batch), missing);
+        };
+    }
 
-            // List of futures to be return from stocks
-            List<Future<StrategyOutputV2>> futures = Lists.newArrayList();
+    private Collection<StockFA> withMissing(List<StockFA> stocks, List<Symbol> missing) {
+        if(!missing.isEmpty()) {
+            stocks.addAll(stockStore.loadMapped(missing).values());
+        }
+        return stocks;
+    }
 
-            // For each stock, submit it to the exector
-            stocks.forEach(s -> {
-                futures.add(runStockFutureV2(s));
-            });
+    /**
+     * Finds the signals of the strategy on all stocks, see {@link com.financialanalysis.strategyV2.Strategy#signals}.
+     * Stocks without entries are left out.
+     */
+    public List<SignalSeries> runSignals() {
+        log.info("Beginning to find signals on all stocks.");
+        return runAll(getStockLoader(), this::signalsV2, signals -> !signals.isEmpty());
+    }
 
-            futures.forEach(f -> {
-                try {
-                    StrategyOutputV2 output = f.get();
-                    if(!output.isEmpty()) {
-                        results.add(output);
-                    }
-                } catch (InterruptedException e) {
-                    log.error("InterruptedException: ", e);
-                } catch (ExecutionException e) {
-                    log.error("ExecutionException: ", e);
+    /**
+     * Runs as a pipeline so disk and CPU overlap: a loader thread maps stocks in batches onto a bounded
+     * queue, one evaluator per core takes stocks off it, and the calling thread collects the results.
+     * The loader blocks when the queue is full, so at most QUEUE_CAPACITY stocks are held in memory
+     * beyond the ones being evaluated. The threads only live for the one run.
+     */
+    @SneakyThrows
+    private <T> List<T> runAll(Function<List<Symbol>, Collection<StockFA>> load, Function<StockFA, T> evaluate, Predicate<T> keep) {
+        List<Symbol> allSymbols = symbolStore.load();
+        int evaluators = Runtime.getRuntime().availableProcessors();
+
+        BlockingQueue<StockFA> stockQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Optional<T>> resultQueue = new LinkedBlockingQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(evaluators + 1);
+
+        List<T> results = Lists.newArrayList();
+        try {
+            Future<Void> loader = executor.submit(() -> loadStocks(allSymbols, load, stockQueue, evaluators));
+            for(int i = 0; i < evaluators; i++) {
+                executor.submit(() -> evaluateStocks(stockQueue, resultQueue, evaluate));
+            }
+
+            // Every evaluator sends an empty result once it is done
+            int finished = 0;
+            while(finished < evaluators) {
+                Optional<T> output = resultQueue.take();
+                if(!output.isPresent()) {
+                    finished++;
+                } else if(keep.test(output.get())) {
+                    results.add(output.get());
                 }
-            });
-        });
+            }
+
+            // Surfaces a failure to load, the evaluators have already stopped by now
+            loader.get();
+        } finally {
+            executor.shutdownNow();
+        }
 
-        exector.shutdown();
         return results;
     }
 
+    private Void loadStocks(List<Symbol> symbols, Function<List<Symbol>, Collection<StockFA>> load, BlockingQueue<StockFA> stockQueue, int evaluators) throws InterruptedException {
+        try {
+            for(List<Symbol> batch : Lists.partition(symbols, MAX_BATCH_SIZE)) {
+                for(StockFA stock : load.apply(batch)) {
+                    stockQueue.put(stock);
+                }
+            }
+        } finally {
+            for(int i = 0; i < evaluators; i++) {
+                stockQueue.put(END_OF_STOCKS);
+            }
+        }
+        return null;
+    }
+
+    private <T> Void evaluateStocks(BlockingQueue<StockFA> stockQueue, BlockingQueue<Optional<T>> resultQueue, Function<StockFA, T> evaluate) throws InterruptedException {
+        try {
+            StockFA stock;
+            while((stock = stockQueue.take()) != END_OF_STOCKS) {
+                try {
+                    resultQueue.put(Optional.of(evaluate.apply(stock)));
+                } catch (RuntimeException e) {
+                    log.error("Failed to run " + stock.getSymbol() + ": ", e);
+                }
+            }
+        } finally {
+            resultQueue.put(Optional.empty());
+        }
+        return null;
+    }
+
     private StrategyOutputV2 runStockV2(StockFA stock) {
-        DateTime start = getStartDate();
-        DateTime end = getEndDate();
-        List<StockPrice> stockPrices = getValidStockPrices(stock.getHistory(), start, end);
-        StockFA filteredStock = new StockFA(stock.getSymbol(), stockPrices);
+        StockFA filteredStock = getValidStock(stock);
 
-        StrategyInput input = new StrategyInput(filteredStock);
+        StrategyInput input = new StrategyInput(filteredStock, indicatorProvider);
         StrategyOutputV2 output = bollingerStrategy.run(input); //macdStrategy.run(input);
 //        StrategyOutputV2 output = bollingerMacdStategy.run(input);
 
         return output;
     }
 
-    private Future<StrategyOutputV2> runStockFutureV2(StockFA stock) {
-        DateTime start = getStartDate();
-        DateTime end = getEndDate();
-        List<StockPrice> stockPrices = getValidStockPrices(stock.getHistory(), start, end);
-        StockFA filteredStock = new StockFA(stock.getSymbol(), stockPrices);
-
-        StrategyInput input = new StrategyInput(filteredStock);
+    private SignalSeries signalsV2(StockFA stock) {
+        StockFA filteredStock = getValidStock(stock);
+        return bollingerStrategy.signals(new StrategyInput(filteredStock, indicatorProvider));
+    }
 
-//        return exector.submit(() -> macdStrategy.run(input));
-        return exector.submit(() -> bollingerStrategy.run(input));
-//        return exector.submit(() -> bollingerMacdStategy.run(input));
+    /**
+     * Restricts the stock to the days between the start and end date. This is a view over the
+     * stock's series, so for a mapped stock only the days in range are ever read.
+     */
+    private StockFA getValidStock(StockFA stock) {
+        PriceSeries series = getValidPriceSeries(stock.getPriceSeries(), getStartDate(), getEndDate());
+        return new StockFA(stock.getSymbol(), series);
     }
 
     private DateTime getStartDate() {
-        DateTime start;
         // If we are runStrategies, then just return default start and end
         if(runStrategies) {
-            start = runStrategiesStartDate;
-        } else {
-            // If backtest start or end exists, use those
-            if(!Strings.isNullOrEmpty(backtestStart)) {
-                start = new DateTime(backtestStart, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
-            } else {
-                start = startDefault;
-            }
+            return runStrategiesStartDate;
         }
-
-        return start;
+        return getBacktestStart();
     }
 
     private DateTime getEndDate() {
-        DateTime end;
         // If we are runStrategies, then just return default start and end
         if(runStrategies) {
-            end = today;
-        } else {
-            // If backtest start or end exists, use those
-            if(!Strings.isNullOrEmpty(backtestEnd)) {
-                end = new DateTime(backtestEnd, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
-            } else {
-                end = today;
-            }
+            return today;
         }
-
-        return end;
+        return getBacktestEnd();
     }
 
-    private Future<StrategyOutput> runStockFuture(StockFA stock) {
+    private Future<StrategyOutput> runStockFuture(StockFA stock, ExecutorService executor) {
         FlagStrategyInput input = getFlagStrategyInput(stock);
         FlagStrategy flagStrategy = new FlagStrategy();
-        return exector.submit(() -> flagStrategy.runStrategy(input));
+        return executor.submit(() -> flagStrategy.runStrategy(input));
     }
 
     private StrategyOutput runStock(StockFA stock) {
@@ -203,26 +297,26 @@ public class StrategyRunner {
     }
 
     private FlagStrategyInput getFlagStrategyInput(StockFA stock) {
-        DateTime start;
-        DateTime end;
-        // If we are runStrategies, then just return default start and end
-        if(runStrategies) {
-            start = runStrategiesStartDate;
-            end = today;
-        } else {
-            // If backtest start or end exists, use those
-            if(!Strings.isNullOrEmpty(backtestStart)) {
-                start = new DateTime(backtestStart, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
-            } else {
-                start = startDefault;
-            }
+        return new FlagStrategyInput(stock, config, getStartDate(), getEndDate());
+    }
 
-            if(!Strings.isNullOrEmpty(backtestEnd)) {
-                end = new DateTime(backtestEnd, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
-            } else {
-                end = today;
-            }
+    /**
+     * If backtest start exists, use it
+     */
+    DateTime getBacktestStart() {
+        if(!Strings.isNullOrEmpty(backtestStart)) {
+            return new DateTime(backtestStart, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
+        }
+        return startDefault;
+    }
+
+    /**
+     * If backtest end exists, use it
+     */
+    DateTime getBacktestEnd() {
+        if(!Strings.isNullOrEmpty(backtestEnd)) {
+            return new DateTime(backtestEnd, DateTimeZone.forID("America/Toronto")).withTimeAtStartOfDay();
         }
-        return new FlagStrategyInput(stock, config, start, end);
+        return today;
     }
 }
@@ -0,0 +1,167 @@
+package com.financialanalysis.workflow;
+
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.strategy.FlagConfig;
+import com.financialanalysis.strategy.FlagConfigSpace;
+import com.financialanalysis.strategy.FlagSeries;
+import com.financialanalysis.workflow.FlagConfigOptimizer.FlagScore;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+import static com.financialanalysis.workflow.Main.*;
+
+/**
+ * Walk forward back test of the flag strategy. The back test dates are cut into windows of
+ * --walkForwardTrainDays followed by --walkForwardTestDays, each window starting one test period
+ * after the previous one. On every train period the configs are ranked as by FlagConfigOptimizer,
+ * and the best one is run on the test period that follows. The test periods do not overlap, so
+ * together they give an out of sample return for picking the config this way.
+ *
+ * The stocks are loaded once and every window slices its dates out of the same series. Windows run
+ * at the same time on one fork join pool, which also runs the back tests inside each window.
+ */
+@Log4j
+@Singleton
+public class WalkForwardRunner {
+    private static final String OUTPUT_DIR = "var/output/";
+    private static final String TABLE_FILE = "walk-forward.txt";
+
+    private final FlagConfigOptimizer optimizer;
+    private final StrategyRunner strategyRunner;
+
+    @Inject
+    public WalkForwardRunner(FlagConfigOptimizer optimizer, StrategyRunner strategyRunner) {
+        this.optimizer = optimizer;
+        this.strategyRunner = strategyRunner;
+    }
+
+    @SneakyThrows
+    public List<WindowResult> run() {
+        long seed = System.nanoTime();
+        Random random = new Random(seed);
+
+        FlagConfig base = FlagConfig.readFromFile();
+        List<Map<String, Number>> candidates = optimizer.getCandidates(FlagConfigSpace.readFromFile(), random);
+        List<StockFA> stocks = optimizer.loadStocks(random);
+
+        List<Window> windows = getWindows(strategyRunner.getBacktestStart(), strategyRunner.getBacktestEnd());
+        log.info(String.format("Walking forward over %d windows with %d configs on %d stocks, seed %d",
+                windows.size(), candidates.size(), stocks.size(), seed));
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        List<WindowResult> results;
+        try {
+            List<ForkJoinTask<WindowResult>> tasks = windows.stream()
+                    .map(window -> pool.submit(() -> runWindow(window, base, candidates, stocks, pool)))
+                    .collect(Collectors.toList());
+            results = Lists.newArrayList();
+            for(ForkJoinTask<WindowResult> task : tasks) {
+                results.add(task.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        report(results);
+        return results;
+    }
+
+    private WindowResult runWindow(Window window, FlagConfig base, List<Map<String, Number>> candidates, List<StockFA> stocks, ForkJoinPool pool) {
+        List<FlagSeries> train = FlagConfigOptimizer.toSeries(stocks, window.getTrainStart(), window.getTestStart().minusDays(1));
+        List<FlagScore> ranked = optimizer.rank(FlagConfigOptimizer.newScores(base, candidates), train, pool);
+        FlagScore best = ranked.get(0);
+
+        // The train period goes in front to warm up the indicators, so no test day is lost to MIN_DATA_POINTS
+        List<FlagSeries> test = FlagConfigOptimizer.toSeries(stocks, window.getTrainStart(), window.getTestStart(), window.getTestEnd());
+        FlagScore tested = optimizer.rank(FlagConfigOptimizer.newScores(base, Collections.singletonList(best.getAssignment())), test, pool).get(0);
+
+        log.info(String.format("Window %s: train %.3f%%, test %.3f%%", window, best.getAggregateReturn(), tested.getAggregateReturn()));
+        return new WindowResult(window, best, tested);
+    }
+
+    /**
+     * Train and test periods from start, moving forward one test period at a time until a test period
+     * would start after end. The last test period may be cut short by end.
+     */
+    static List<Window> getWindows(DateTime start, DateTime end) {
+        List<Window> windows = Lists.newArrayList();
+        DateTime trainStart = start;
+        while(true) {
+            DateTime testStart = trainStart.plusDays(walkForwardTrainDays);
+            if(testStart.isAfter(end)) {
+                break;
+            }
+
+            DateTime testEnd = testStart.plusDays(walkForwardTestDays - 1);
+            windows.add(new Window(trainStart, testStart, testEnd.isAfter(end) ? end : testEnd));
+            trainStart = trainStart.plusDays(walkForwardTestDays);
+        }
+        return windows;
+    }
+
+    @SneakyThrows
+    private void report(List<WindowResult> results) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-10s %-10s %-10s %10s %10s %7s %7s  %s%n",
+                "Train", "Test", "TestEnd", "Train%", "Test%", "Stocks", "Traded", "Config"));
+
+        double totalReturn = 0;
+        int totalStocks = 0;
+        for(WindowResult result : results) {
+            Window window = result.getWindow();
+            FlagScore tested = result.getTested();
+            table.append(String.format("%-10s %-10s %-10s %10.3f %10.3f %7d %7d  %s%n",
+                    window.getTrainStart().toLocalDate(),
+                    window.getTestStart().toLocalDate(),
+                    window.getTestEnd().toLocalDate(),
+                    result.getTrained().getAggregateReturn(),
+                    tested.getAggregateReturn(),
+                    tested.getStocks(),
+                    tested.getTraded(),
+                    result.getTrained().getAssignment()));
+            totalReturn += tested.getTotalReturn();
+            totalStocks += tested.getStocks();
+        }
+        table.append(String.format("Out of sample return: %.3f%% over %d stock periods%n",
+                totalStocks == 0 ? 0 : totalReturn / totalStocks, totalStocks));
+        log.info("\n" + table);
+
+        FileUtils.writeStringToFile(new File(OUTPUT_DIR + TABLE_FILE), table.toString());
+    }
+
+    @Data
+    public static class Window {
+        private final DateTime trainStart;
+        private final DateTime testStart;
+        private final DateTime testEnd;
+
+        @Override
+        public String toString() {
+            return trainStart.toLocalDate() + "/" + testStart.toLocalDate() + "/" + testEnd.toLocalDate();
+        }
+    }
+
+    @Data
+    public static class WindowResult {
+        private final Window window;
+        // Best config on the train period, with its train score
+        private final FlagScore trained;
+        // The same config run on the test period
+        private final FlagScore tested;
+    }
+}
@@ -0,0 +1,173 @@
+package com.financialanalysis.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compares the rolling window kernels against the original implementations that rescan the
+ * whole look back period for every index.
+ */
+public class AnalysisBaseFunctionsTest {
+    private static final int[] LENGTHS = {1, 2, 20, 500, 10000};
+    private static final int[] PERIODS = {1, 2, 3, 9, 21, 100, 600};
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void sma_matchesRescan() {
+        for(double[] input : inputs()) {
+            for(int period : PERIODS) {
+                assertArrayEquals(naiveSma(input, period), AnalysisBaseFunctions.sma(input, period), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void stdDev_matchesRescan() {
+        for(double[] input : inputs()) {
+            for(int period : PERIODS) {
+                assertArrayEquals(naiveStdDev(input, period), AnalysisBaseFunctions.stdDev(input, period), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void stdDev_flatAfterVolatile() {
+        // A halted stock, the squared deviations leaving the window cancel nearly all of the sum
+        Random random = new Random(7);
+        for(int n = 0; n < 200; n++) {
+            double[] input = new double[250];
+            double price = 50;
+            for(int i = 0; i < input.length; i++) {
+                if(i < 150) {
+                    price = Math.max(0.01, price + 5 * random.nextGaussian());
+                }
+                input[i] = price;
+            }
+
+            for(int period = 2; period <= 40; period++) {
+                double[] stdDev = AnalysisBaseFunctions.stdDev(input, period);
+                for(double value : stdDev) {
+                    assertFalse(Double.isNaN(value));
+                }
+                assertArrayEquals(naiveStdDev(input, period), stdDev, DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void highestAndLowest_matchRescanExactly() {
+        for(double[] input : inputs()) {
+            for(int period : PERIODS) {
+                assertArrayEquals(naiveHighest(input, period), AnalysisBaseFunctions.highest(input, period), 0.0);
+                assertArrayEquals(naiveLowest(input, period), AnalysisBaseFunctions.lowest(input, period), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void highestAndLowest_keepClamps() {
+        double[] negative = {-5, -4, -3, -2, -1};
+        assertArrayEquals(naiveHighest(negative, 3), AnalysisBaseFunctions.highest(negative, 3), 0.0);
+
+        double[] huge = {2e9, 3e9, 4e9, 5e9};
+        assertArrayEquals(naiveLowest(huge, 2), AnalysisBaseFunctions.lowest(huge, 2), 0.0);
+    }
+
+    private static double[][] inputs() {
+        Random random = new Random(42);
+        double[][] inputs = new double[LENGTHS.length * 2][];
+        for(int n = 0; n < LENGTHS.length; n++) {
+            // Random walk like a closing price series
+            double[] walk = new double[LENGTHS[n]];
+            double price = 50;
+            for(int i = 0; i < walk.length; i++) {
+                price = Math.max(0.01, price + random.nextGaussian());
+                walk[i] = price;
+            }
+            inputs[2 * n] = walk;
+
+            // Few distinct values so there are plenty of ties
+            double[] flat = new double[LENGTHS[n]];
+            for(int i = 0; i < flat.length; i++) {
+                flat[i] = random.nextInt(4);
+            }
+            inputs[2 * n + 1] = flat;
+        }
+        return inputs;
+    }
+
+    private static double[] naiveStdDev(double[] input, int period) {
+        double[] stdDevArr = new double[input.length];
+        double[] devSquared = new double[input.length];
+
+        for(int i = 0; i< input.length; i++){
+            int counter = 0;
+            double mean = 0;
+            for(int j = i; j >= 0 && i - j < period - 1; j--) {
+                mean += input[j];
+                counter++;
+            }
+            mean /= counter;
+
+            double dev = input[i] - mean;
+            devSquared[i] = Math.pow(dev, 2);
+
+            int devCounter = 0;
+            double devMean = 0;
+            for(int j = i; j >= 0 && i - j < period - 1; j--) {
+                devMean += devSquared[j];
+                devCounter++;
+            }
+
+            devMean /= devCounter;
+            stdDevArr[i] = Math.sqrt(devMean);
+        }
+        return stdDevArr;
+    }
+
+    private static double[] naiveSma(double[] input, int period) {
+        double[] sma = new double[input.length];
+        sma[0] = input[0];
+        for(int i = 1; i < input.length; i++) {
+            int counter = 0;
+            double ave = 0;
+            for(int j = i; j >= 0 && j > i - period; j--) {
+                ave += input[j];
+                counter++;
+            }
+            ave /= counter;
+            sma[i] = ave;
+        }
+        return sma;
+    }
+
+    private static double[] naiveHighest(double[] input, int period) {
+        double[] highest = new double[input.length];
+        highest[0] = input[0];
+        for(int i = 1; i < input.length; i++) {
+            double maxInLookBackPeriod = 0.0;
+            for(int j = i; j >= 0 && j > i - period; j--) {
+                if(input[j] > maxInLookBackPeriod) maxInLookBackPeriod = input[j];
+            }
+            highest[i] = maxInLookBackPeriod;
+        }
+        return highest;
+    }
+
+    private static double[] naiveLowest(double[] input, int period) {
+        double[] lowest = new double[input.length];
+        lowest[0] = input[0];
+        for(int i = 1; i < input.length; i++) {
+            double lowestInLookBackPeriod = 1000000000.0;
+            for(int j = i; j >= 0 && j > i - period; j--) {
+                if(input[j] < lowestInLookBackPeriod) lowestInLookBackPeriod = input[j];
+            }
+            lowest[i] = lowestInLookBackPeriod;
+        }
+        return lowest;
+    }
+}
@@ -0,0 +1,142 @@
+package com.financialanalysis.analysis;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the default indicators with TA-Lib's after warm up. Where the default has its own take on
+ * an indicator, it is checked against a reference computed here instead. The time each provider takes
+ * is measured by IndicatorProviderBenchmark.
+ */
+public class IndicatorProviderParityTest {
+    private static final int BARS = 2500;
+
+    private static final IndicatorProvider DEFAULT = new DefaultIndicatorProvider();
+    private static final IndicatorProvider TA_LIB = new TaLibIndicatorProvider();
+
+    private static double[] close;
+    private static double[] high;
+    private static double[] low;
+
+    @BeforeClass
+    public static void createSeries() {
+        Random random = new Random(42);
+        close = new double[BARS];
+        high = new double[BARS];
+        low = new double[BARS];
+
+        double price = 50;
+        for(int i = 0; i < BARS; i++) {
+            price = Math.max(1, price + random.nextGaussian());
+            close[i] = price;
+            high[i] = price + random.nextDouble();
+            low[i] = price - random.nextDouble();
+        }
+    }
+
+    @Test
+    public void sma_matchesAfterWarmUp() {
+        assertTrue(maxDiff(DEFAULT.sma(close, 20), TA_LIB.sma(close, 20), 20) < 1e-9);
+    }
+
+    @Test
+    public void ema_convergesAfterWarmUp() {
+        // The default seeds a day later, which is forgotten after enough days
+        assertTrue(maxDiff(DEFAULT.ema(close, 20), TA_LIB.ema(close, 20), 20 * 20) < 1e-6);
+    }
+
+    @Test
+    public void macd_convergesAfterWarmUp() {
+        assertTrue(maxDiff(DEFAULT.macd(close, 12, 26, 9).getMacdHist(), TA_LIB.macd(close, 12, 26, 9).getMacdHist(), 20 * 26) < 1e-6);
+    }
+
+    @Test
+    public void bollingerMid_matchesAfterWarmUp() {
+        assertTrue(maxDiff(DEFAULT.bollingerBands(close, 21).getBbMid(), TA_LIB.bollingerBands(close, 21).getBbMid(), 21) < 1e-9);
+    }
+
+    @Test
+    public void bollingerOuterBands_useTheirOwnDeviationWindows() {
+        int period = 21;
+        AnalysisFunctionResult defaults = DEFAULT.bollingerBands(close, period);
+        AnalysisFunctionResult taLib = TA_LIB.bollingerBands(close, period);
+
+        // The default's deviation is over period - 1 days, each taken from the mean of the period - 1 days before it
+        double[] defaultDeviation = new double[BARS];
+        double[] taLibDeviation = new double[BARS];
+        // Far enough in that every mean the deviations are taken from has a full window
+        for(int i = 2 * period; i < BARS; i++) {
+            double squares = 0;
+            for(int j = i - period + 2; j <= i; j++) {
+                double dev = close[j] - mean(close, j - period + 2, j);
+                squares += dev * dev;
+            }
+            defaultDeviation[i] = Math.sqrt(squares / (period - 1));
+
+            // TA-Lib's is the population standard deviation of the period days
+            double mean = mean(close, i - period + 1, i);
+            squares = 0;
+            for(int j = i - period + 1; j <= i; j++) {
+                squares += (close[j] - mean) * (close[j] - mean);
+            }
+            taLibDeviation[i] = Math.sqrt(squares / period);
+        }
+
+        for(int i = 2 * period; i < BARS; i++) {
+            assertEquals(defaults.getBbMid()[i] + 2 * defaultDeviation[i], defaults.getBbHigh()[i], 1e-9);
+            assertEquals(defaults.getBbMid()[i] - 2 * defaultDeviation[i], defaults.getBbLow()[i], 1e-9);
+            assertEquals(taLib.getBbMid()[i] + 2 * taLibDeviation[i], taLib.getBbHigh()[i], 1e-9);
+            assertEquals(taLib.getBbMid()[i] - 2 * taLibDeviation[i], taLib.getBbLow()[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void averageTrueRange_defaultIsMeanRange() {
+        // The default leaves out gaps from the previous close and isn't smoothed, unlike TA-Lib's
+        int period = 14;
+        double[] atr = DEFAULT.averageTrueRange(high, low, close, period);
+        for(int i = 0; i < BARS; i++) {
+            int first = Math.max(0, i - period + 1);
+            double range = 0;
+            for(int j = first; j <= i; j++) {
+                range += high[j] - low[j];
+            }
+            assertEquals(range / (i - first + 1), atr[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void taLib_emptySeries() {
+        double[] empty = new double[0];
+        assertEquals(0, TA_LIB.sma(empty, 20).length);
+        assertEquals(0, TA_LIB.ema(empty, 20).length);
+        assertEquals(0, TA_LIB.bollingerBands(empty, 21).getBbHigh().length);
+        assertEquals(0, TA_LIB.macd(empty, 12, 26, 9).getMacdHist().length);
+        assertEquals(0, TA_LIB.averageTrueRange(empty, empty, empty, 14).length);
+    }
+
+    private static double mean(double[] input, int from, int to) {
+        double sum = 0;
+        for(int j = from; j <= to; j++) {
+            sum += input[j];
+        }
+        return sum / (to - from + 1);
+    }
+
+    /**
+     * Largest difference between the two from index warmUp on
+     */
+    private static double maxDiff(double[] expected, double[] actual, int warmUp) {
+        assertEquals(expected.length, actual.length);
+        double diff = 0;
+        for(int i = warmUp; i < expected.length; i++) {
+            diff = Math.max(diff, Math.abs(expected[i] - actual[i]));
+        }
+        return diff;
+    }
+}
@@ -0,0 +1,102 @@
+package com.financialanalysis.analysis;
+
+import org.apache.commons.math3.stat.regression.SimpleRegression;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the running regression against a SimpleRegression rebuilt from scratch for every window,
+ * the way the flag search used to fit its lines.
+ */
+public class RunningRegressionTest {
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void growingWindow_matchesSimpleRegression() {
+        double[] prices = walk(new Random(1), 400);
+        for(int start = 30; start < prices.length; start += 7) {
+            RunningRegression running = new RunningRegression();
+            // Grow backward from start, like the flag pole search
+            for(int i = start; i >= 0 && i >= start - 40; i--) {
+                running.addData(i, prices[i]);
+                assertMatches(rebuild(prices, i, start), running);
+            }
+        }
+    }
+
+    @Test
+    public void slidingWindow_matchesSimpleRegression() {
+        double[] prices = walk(new Random(2), 2000);
+        int window = 25;
+        RunningRegression running = new RunningRegression();
+        for(int i = 0; i < prices.length; i++) {
+            running.addData(i, prices[i]);
+            if(i >= window) {
+                running.removeData(i - window, prices[i - window]);
+            }
+            assertMatches(rebuild(prices, Math.max(0, i - window + 1), i), running);
+        }
+    }
+
+    @Test
+    public void degenerateWindows_areNaNLikeSimpleRegression() {
+        RunningRegression running = new RunningRegression();
+        assertMatches(new SimpleRegression(), running);
+
+        running.addData(3, 10.0);
+        SimpleRegression one = new SimpleRegression();
+        one.addData(3, 10.0);
+        assertMatches(one, running);
+
+        // Same x twice, no slope
+        running.addData(3, 12.0);
+        one.addData(3, 12.0);
+        assertMatches(one, running);
+
+        // Flat prices, no r squared
+        RunningRegression flat = new RunningRegression();
+        SimpleRegression flatSr = new SimpleRegression();
+        for(int i = 0; i < 5; i++) {
+            flat.addData(i, 7.5);
+            flatSr.addData(i, 7.5);
+        }
+        assertMatches(flatSr, flat);
+    }
+
+    private static SimpleRegression rebuild(double[] prices, int from, int to) {
+        SimpleRegression sr = new SimpleRegression();
+        for(int i = to; i >= from; i--) {
+            sr.addData(i, prices[i]);
+        }
+        return sr;
+    }
+
+    private static void assertMatches(SimpleRegression expected, RunningRegression actual) {
+        assertEquals(expected.getN(), actual.getN());
+        assertClose(expected.getSlope(), actual.getSlope());
+        assertClose(expected.getIntercept(), actual.getIntercept());
+        assertClose(expected.getRSquare(), actual.getRSquare());
+    }
+
+    private static void assertClose(double expected, double actual) {
+        if(Double.isNaN(expected)) {
+            assertTrue("Expected NaN but was " + actual, Double.isNaN(actual));
+        } else {
+            assertEquals(expected, actual, TOLERANCE * Math.max(1.0, Math.abs(expected)));
+        }
+    }
+
+    private static double[] walk(Random random, int length) {
+        double[] prices = new double[length];
+        double price = 50;
+        for(int i = 0; i < length; i++) {
+            price = Math.max(0.01, price + random.nextGaussian());
+            prices[i] = price;
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,122 @@
+package com.financialanalysis.store;
+
+import com.financialanalysis.common.DateTimeUtils;
+import com.financialanalysis.data.StockFA;
+import com.financialanalysis.data.StockPrice;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinaryStockFormatTest {
+    private static final DateTime START = new DateTime(2016, 1, 4, 0, 0);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_roundTrips() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("stock");
+        List<StockPrice> history = prices(0, 100);
+        BinaryStockFormat.write(path, new StockFA(null, history));
+
+        assertEquals(100, count(path));
+        assertEquals(100 + BinaryStockFormat.SPARE_ROWS, capacity(path));
+        assertSame(history, BinaryStockFormat.read(path, null).getHistory());
+        assertEquals(false, Files.exists(path.resolveSibling("stock.tmp")));
+    }
+
+    @Test
+    public void append_fillsSpareRowsInPlace() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("stock");
+        BinaryStockFormat.write(path, new StockFA(null, prices(0, 100)));
+
+        BinaryStockFormat.append(path, prices(100, 10));
+
+        assertEquals(110, count(path));
+        assertEquals(100 + BinaryStockFormat.SPARE_ROWS, capacity(path));
+        assertSame(prices(0, 110), BinaryStockFormat.read(path, null).getHistory());
+    }
+
+    @Test
+    public void append_rewritesWithFreshSpareRowsWhenFull() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("stock");
+        BinaryStockFormat.write(path, new StockFA(null, prices(0, 100)));
+
+        int added = BinaryStockFormat.SPARE_ROWS + 1;
+        BinaryStockFormat.append(path, prices(100, added));
+
+        assertEquals(100 + added, count(path));
+        assertEquals(100 + added + BinaryStockFormat.SPARE_ROWS, capacity(path));
+        assertSame(prices(0, 100 + added), BinaryStockFormat.read(path, null).getHistory());
+    }
+
+    @Test
+    public void append_rejectsDaysNotAfterTheLastStored() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("stock");
+        BinaryStockFormat.write(path, new StockFA(null, prices(0, 100)));
+        byte[] before = Files.readAllBytes(path);
+
+        // The last stored day again
+        assertRejected(path, prices(99, 2));
+        // In order after the last stored day, but not within the batch
+        List<StockPrice> outOfOrder = prices(100, 3);
+        outOfOrder.add(prices(101, 1).get(0));
+        assertRejected(path, outOfOrder);
+
+        assertArrayEquals(before, Files.readAllBytes(path));
+    }
+
+    private static void assertRejected(Path path, List<StockPrice> prices) throws IOException {
+        try {
+            BinaryStockFormat.append(path, prices);
+            fail("Expected the append to be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * count prices on consecutive days from START plus first days, each with its own values
+     */
+    private static List<StockPrice> prices(int first, int count) {
+        List<StockPrice> prices = new ArrayList<>();
+        for(int i = first; i < first + count; i++) {
+            prices.add(new StockPrice(START.plusDays(i), 10 + i, 9 + i, 11 + i, 10.5 + i, 1000 * i));
+        }
+        return prices;
+    }
+
+    private static void assertSame(List<StockPrice> expected, List<StockPrice> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            StockPrice e = expected.get(i);
+            StockPrice a = actual.get(i);
+            assertEquals(DateTimeUtils.toEpochDay(e.getDate()), DateTimeUtils.toEpochDay(a.getDate()));
+            assertArrayEquals(
+                    new double[]{e.getOpen(), e.getLow(), e.getHigh(), e.getClose(), e.getVolume()},
+                    new double[]{a.getOpen(), a.getLow(), a.getHigh(), a.getClose(), a.getVolume()},
+                    0.0);
+        }
+    }
+
+    private static int count(Path path) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(path)).getInt(BinaryStockFormat.COUNT_OFFSET);
+    }
+
+    private static int capacity(Path path) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(path)).getInt(BinaryStockFormat.CAPACITY_OFFSET);
+    }
+}